@@ -0,0 +1,641 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.UriTemplateMatch.UnknownParameters;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * Classifies the requests of an access log by the {@link UriTemplate} their URI matches, and
+ * counts them and sums up their latency per template:
+ * </p>
+ * <pre>
+ * UriTemplateRouter&lt;String&gt; router = UriTemplateRouter.&lt;String&gt;builder()
+ *     .add("/users/{id}", "users")
+ *     .add("/search{?q,page}", "search")
+ *     .build();
+ * AccessLogClassifier.Report report = new AccessLogClassifier(router)
+ *     .withLatencyField(-1)
+ *     .classify(Paths.get("access.log"), pool);
+ * report.getStatistics().get("/users/{id}").getCount();
+ * </pre>
+ * <p>
+ * The log is memory-mapped and split at line boundaries across the workers of the supplied
+ * {@link ForkJoinPool}. Lines are matched as bytes, one character per byte, without being decoded
+ * into strings; URIs in access logs are percent-encoded ASCII, and a byte outside of ASCII never
+ * matches a variable. Lines end with <code>\n</code> or <code>\r\n</code>.
+ * </p>
+ * <p>
+ * Fields are separated by spaces. By default the URI is the second word of the first quoted part
+ * of the line, the request line of the Common and Combined Log Formats:
+ * <code>"GET /users/42 HTTP/1.1"</code>. {@link #withUriField(int)} picks a field instead, and
+ * {@link #withLatencyField(int)} names the field that holds the latency, a decimal number in
+ * whatever unit the log uses. Parameters that a template does not name are ignored unless
+ * {@link #withUnknownParameters(UnknownParameters)} says otherwise.
+ * </p>
+ * <p>
+ * The class can also be run from the command line; see {@link #main(String[])}.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public final class AccessLogClassifier
+{
+
+    /**
+     * The largest part of the log that is mapped at once.
+     */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * Marks a field that is not set.
+     */
+    private static final int NO_FIELD = Integer.MIN_VALUE;
+
+    private final UriTemplateRouter<?> router;
+
+    private int uriField = NO_FIELD;
+
+    private int latencyField = NO_FIELD;
+
+    private UnknownParameters unknownParameters = UnknownParameters.IGNORE;
+
+    /**
+     * Create a new AccessLogClassifier.
+     *
+     * @param router the templates that the requests are classified by
+     */
+    public AccessLogClassifier(UriTemplateRouter<?> router)
+    {
+        this.router = router;
+    }
+
+    /**
+     * Reads the URI from a field of the line rather than from the quoted request line.
+     *
+     * @param index the index of the field, from 0; a negative index counts from the end of the
+     *              line, -1 being the last field
+     * @return this classifier
+     */
+    public AccessLogClassifier withUriField(int index)
+    {
+        this.uriField = index;
+        return this;
+    }
+
+    /**
+     * Reads the latency of each request from a field of the line. Lines where the field is missing
+     * or not a number are counted, but not in the latency figures.
+     *
+     * @param index the index of the field, from 0; a negative index counts from the end of the
+     *              line, -1 being the last field
+     * @return this classifier
+     */
+    public AccessLogClassifier withLatencyField(int index)
+    {
+        this.latencyField = index;
+        return this;
+    }
+
+    /**
+     * Sets what to do with the parameters of a URI that a template does not name. The default is
+     * {@link UnknownParameters#IGNORE}, as logged URIs often carry tracking parameters.
+     *
+     * @param unknownParameters
+     * @return this classifier
+     */
+    public AccessLogClassifier withUnknownParameters(UnknownParameters unknownParameters)
+    {
+        this.unknownParameters = unknownParameters;
+        return this;
+    }
+
+    /**
+     * Classifies the lines of the log file.
+     *
+     * @param file the access log
+     * @param pool the pool that runs the classification
+     * @return the counts and latencies per template
+     * @throws IOException if the file cannot be read, or has a line longer than 1 GB
+     */
+    public Report classify(Path file, ForkJoinPool pool) throws IOException
+    {
+        final Report report = new Report();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            final long size = channel.size();
+            long start = 0;
+            while (start < size)
+            {
+                final long end = segmentEnd(channel, start, size);
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                report.merge(classify(buffer, pool));
+                start = end;
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Classifies the lines between the position and the limit of the buffer.
+     *
+     * @param buffer the lines of the log
+     * @param pool the pool that runs the classification
+     * @return the counts and latencies per template
+     */
+    public Report classify(ByteBuffer buffer, ForkJoinPool pool)
+    {
+        final int length = buffer.remaining();
+        return pool.invoke(new ClassifyTask(this, buffer, buffer.position(), buffer.limit(),
+                                            ClassifyTask.threshold(length, pool.getParallelism())));
+    }
+
+    /**
+     * Returns the end of the segment that starts at the position: after the end of the line that
+     * straddles {@link #SEGMENT_SIZE}, or the end of the file.
+     */
+    private static long segmentEnd(FileChannel channel, long start, long size) throws IOException
+    {
+        long end = start + SEGMENT_SIZE;
+        if (end >= size)
+        {
+            return size;
+        }
+        final ByteBuffer b = ByteBuffer.allocate(4096);
+        while (end < size)
+        {
+            b.clear();
+            final int read = channel.read(b, end);
+            for (int i = 0; i < read; i++)
+            {
+                if (b.get(i) == '\n')
+                {
+                    return end + i + 1;
+                }
+            }
+            end += Math.max(read, 0);
+            if (end - start > Integer.MAX_VALUE)
+            {
+                throw new IOException("The log has a line longer than " + SEGMENT_SIZE + " bytes at " + start);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Classifies one line, from its first byte to the byte before the end of line.
+     */
+    void classifyLine(ByteBuffer buffer, int start, int end, ClassifyTask.ByteSequence uri, Report report)
+    {
+        report.lines++;
+        final long uriRange = uriField == NO_FIELD ? requestTarget(buffer, start, end)
+                                                   : field(buffer, start, end, uriField);
+        final UriTemplateRouter.Route<?> route = uriRange < 0 ? null
+            : router.routeView(uri.set((int) (uriRange >>> 32), (int) uriRange), unknownParameters);
+        if (route == null)
+        {
+            report.unmatched++;
+            return;
+        }
+        double latency = Double.NaN;
+        if (latencyField != NO_FIELD)
+        {
+            final long latencyRange = field(buffer, start, end, latencyField);
+            if (latencyRange >= 0)
+            {
+                latency = parseLatency(buffer, (int) (latencyRange >>> 32), (int) latencyRange);
+            }
+        }
+        report.statistics(route.getTemplate()).add(latency);
+    }
+
+    /**
+     * Returns the range of the URI in the first quoted part of the line, as the start in the
+     * upper and the end in the lower half of a long, or -1.
+     */
+    private static long requestTarget(ByteBuffer buffer, int start, int end)
+    {
+        int p = start;
+        while (p < end && buffer.get(p) != '"')
+        {
+            p++;
+        }
+        // Skip the method
+        while (p < end && buffer.get(p) != ' ')
+        {
+            p++;
+        }
+        final int uriStart = ++p;
+        while (p < end && buffer.get(p) != ' ' && buffer.get(p) != '"')
+        {
+            p++;
+        }
+        return uriStart < p ? (long) uriStart << 32 | p : -1;
+    }
+
+    /**
+     * Returns the range of the field of the line, as the start in the upper and the end in the
+     * lower half of a long, or -1 if the line does not have the field.
+     */
+    private static long field(ByteBuffer buffer, int start, int end, int index)
+    {
+        if (index >= 0)
+        {
+            int p = start;
+            for (int i = 0; ; i++)
+            {
+                while (p < end && buffer.get(p) == ' ')
+                {
+                    p++;
+                }
+                final int fieldStart = p;
+                while (p < end && buffer.get(p) != ' ')
+                {
+                    p++;
+                }
+                if (fieldStart == p)
+                {
+                    return -1;
+                }
+                if (i == index)
+                {
+                    return (long) fieldStart << 32 | p;
+                }
+            }
+        }
+        int p = end;
+        for (int i = -1; ; i--)
+        {
+            while (p > start && buffer.get(p - 1) == ' ')
+            {
+                p--;
+            }
+            final int fieldEnd = p;
+            while (p > start && buffer.get(p - 1) != ' ')
+            {
+                p--;
+            }
+            if (fieldEnd == p)
+            {
+                return -1;
+            }
+            if (i == index)
+            {
+                return (long) p << 32 | fieldEnd;
+            }
+        }
+    }
+
+    /**
+     * Parses a decimal number such as <code>125</code> or <code>0.125</code>.
+     *
+     * @return the number, or NaN if the field is not one
+     */
+    static double parseLatency(ByteBuffer buffer, int start, int end)
+    {
+        long digits = 0;
+        int scale = -1;
+        for (int p = start; p < end; p++)
+        {
+            final int c = buffer.get(p);
+            if (c == '.' && scale < 0)
+            {
+                scale = 0;
+            }
+            else if (c >= '0' && c <= '9' && p - start < 18)
+            {
+                digits = digits * 10 + (c - '0');
+                if (scale >= 0)
+                {
+                    scale++;
+                }
+            }
+            else
+            {
+                return Double.NaN;
+            }
+        }
+        if (start == end || scale == 0)
+        {
+            return Double.NaN;
+        }
+        return scale > 0 ? digits / Math.pow(10, scale) : digits;
+    }
+
+    /**
+     * <p>
+     * Classifies an access log from the command line and prints, for each template that matched a
+     * request, the number of requests, their share of the log and, if the log has a latency field,
+     * their mean, smallest and largest latency. Templates are read from a file, one per line;
+     * blank lines and lines starting with <code>#</code> are skipped.
+     * </p>
+     * <pre>
+     * java -cp handy-uri-templates.jar com.damnhandy.uri.template.AccessLogClassifier \
+     *     [--uri-field N] [--latency-field N] [--unknown-parameters REJECT|IGNORE|COLLECT] \
+     *     templates.txt access.log
+     * </pre>
+     *
+     * @param args
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException
+    {
+        final List<String> files = new ArrayList<String>();
+        Integer uriField = null;
+        Integer latencyField = null;
+        UnknownParameters unknownParameters = UnknownParameters.IGNORE;
+        for (int i = 0; i < args.length; i++)
+        {
+            if ("--uri-field".equals(args[i]) && i + 1 < args.length)
+            {
+                uriField = Integer.valueOf(args[++i]);
+            }
+            else if ("--latency-field".equals(args[i]) && i + 1 < args.length)
+            {
+                latencyField = Integer.valueOf(args[++i]);
+            }
+            else if ("--unknown-parameters".equals(args[i]) && i + 1 < args.length)
+            {
+                unknownParameters = UnknownParameters.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            }
+            else
+            {
+                files.add(args[i]);
+            }
+        }
+        if (files.size() != 2)
+        {
+            System.err.println("Usage: AccessLogClassifier [--uri-field N] [--latency-field N] "
+                               + "[--unknown-parameters REJECT|IGNORE|COLLECT] <templates> <access log>");
+            System.exit(2);
+        }
+
+        final UriTemplateRouter.Builder<String> builder = UriTemplateRouter.builder();
+        for (String line : Files.readAllLines(Paths.get(files.get(0)), StandardCharsets.UTF_8))
+        {
+            final String template = line.trim();
+            if (!template.isEmpty() && !template.startsWith("#"))
+            {
+                builder.add(template, template);
+            }
+        }
+        final AccessLogClassifier classifier = new AccessLogClassifier(builder.build())
+            .withUnknownParameters(unknownParameters);
+        if (uriField != null)
+        {
+            classifier.withUriField(uriField);
+        }
+        if (latencyField != null)
+        {
+            classifier.withLatencyField(latencyField);
+        }
+        final ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            classifier.classify(Paths.get(files.get(1)), pool).print(System.out);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The counts and latencies of the requests of a log, per template.
+     */
+    public static final class Report
+    {
+        long lines;
+
+        long unmatched;
+
+        private final Map<UriTemplate, Statistics> statistics = new HashMap<UriTemplate, Statistics>();
+
+        Report()
+        {
+        }
+
+        Statistics statistics(UriTemplate template)
+        {
+            Statistics s = statistics.get(template);
+            if (s == null)
+            {
+                s = new Statistics();
+                statistics.put(template, s);
+            }
+            return s;
+        }
+
+        void merge(Report other)
+        {
+            lines += other.lines;
+            unmatched += other.unmatched;
+            for (Map.Entry<UriTemplate, Statistics> e : other.statistics.entrySet())
+            {
+                statistics(e.getKey()).merge(e.getValue());
+            }
+        }
+
+        /**
+         * Returns the number of lines of the log, not counting blank lines.
+         *
+         * @return
+         */
+        public long getLines()
+        {
+            return lines;
+        }
+
+        /**
+         * Returns the number of lines that no template matched, including those without a URI.
+         *
+         * @return
+         */
+        public long getUnmatched()
+        {
+            return unmatched;
+        }
+
+        /**
+         * Returns the statistics of the templates that matched at least one line, by template
+         * string, the most requested first.
+         *
+         * @return
+         */
+        public Map<String, Statistics> getStatistics()
+        {
+            final List<Map.Entry<UriTemplate, Statistics>> entries =
+                new ArrayList<Map.Entry<UriTemplate, Statistics>>(statistics.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<UriTemplate, Statistics>>()
+            {
+                @Override
+                public int compare(Map.Entry<UriTemplate, Statistics> a, Map.Entry<UriTemplate, Statistics> b)
+                {
+                    final int byCount = Long.compare(b.getValue().count, a.getValue().count);
+                    return byCount != 0 ? byCount : a.getKey().getTemplate().compareTo(b.getKey().getTemplate());
+                }
+            });
+            final Map<String, Statistics> result = new LinkedHashMap<String, Statistics>();
+            for (Map.Entry<UriTemplate, Statistics> e : entries)
+            {
+                result.put(e.getKey().getTemplate(), e.getValue());
+            }
+            return result;
+        }
+
+        /**
+         * Prints the report as tab separated columns.
+         *
+         * @param out
+         */
+        public void print(PrintStream out)
+        {
+            out.println("requests\tshare\tmean\tmin\tmax\ttemplate");
+            for (Map.Entry<String, Statistics> e : getStatistics().entrySet())
+            {
+                final Statistics s = e.getValue();
+                out.println(String.format(Locale.ROOT, "%d\t%.2f%%\t%.3f\t%.3f\t%.3f\t%s", s.getCount(),
+                                          100.0 * s.getCount() / lines, s.getMeanLatency(), s.getMinLatency(),
+                                          s.getMaxLatency(), e.getKey()));
+            }
+            out.println(String.format(Locale.ROOT, "%d\t%.2f%%\t\t\t\t(unmatched)", unmatched,
+                                      lines == 0 ? 0.0 : 100.0 * unmatched / lines));
+        }
+    }
+
+    /**
+     * The number of requests that matched a template, and their latency.
+     */
+    public static final class Statistics
+    {
+        long count;
+
+        long latencyCount;
+
+        double latencySum;
+
+        double minLatency = Double.POSITIVE_INFINITY;
+
+        double maxLatency = Double.NEGATIVE_INFINITY;
+
+        Statistics()
+        {
+        }
+
+        void add(double latency)
+        {
+            count++;
+            if (!Double.isNaN(latency))
+            {
+                latencyCount++;
+                latencySum += latency;
+                minLatency = Math.min(minLatency, latency);
+                maxLatency = Math.max(maxLatency, latency);
+            }
+        }
+
+        void merge(Statistics other)
+        {
+            count += other.count;
+            latencyCount += other.latencyCount;
+            latencySum += other.latencySum;
+            minLatency = Math.min(minLatency, other.minLatency);
+            maxLatency = Math.max(maxLatency, other.maxLatency);
+        }
+
+        /**
+         * Returns the number of requests.
+         *
+         * @return
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Returns the number of requests with a latency.
+         *
+         * @return
+         */
+        public long getLatencyCount()
+        {
+            return latencyCount;
+        }
+
+        /**
+         * Returns the sum of the latencies.
+         *
+         * @return
+         */
+        public double getTotalLatency()
+        {
+            return latencySum;
+        }
+
+        /**
+         * Returns the mean latency, or NaN if no request had one.
+         *
+         * @return
+         */
+        public double getMeanLatency()
+        {
+            return latencyCount == 0 ? Double.NaN : latencySum / latencyCount;
+        }
+
+        /**
+         * Returns the smallest latency, or NaN if no request had one.
+         *
+         * @return
+         */
+        public double getMinLatency()
+        {
+            return latencyCount == 0 ? Double.NaN : minLatency;
+        }
+
+        /**
+         * Returns the largest latency, or NaN if no request had one.
+         *
+         * @return
+         */
+        public double getMaxLatency()
+        {
+            return latencyCount == 0 ? Double.NaN : maxLatency;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>
+ * The variable values used by a single expansion. Every variable of a template is compiled to a
+ * slot, its index in {@link UriTemplate#getVariables()}, so a value can be looked up either by
+ * slot or by name, whichever is cheaper for the source of the values.
+ * </p>
+ * <p>
+ * Lazy values, a {@link Callable} or, when running on Java 8 or later, a
+ * <code>java.util.function.Supplier</code>, are only evaluated when the template references the
+ * variable. The result is remembered for the rest of the expansion, so a variable referenced by
+ * several expressions is still evaluated once.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+abstract class Bindings
+{
+
+    /**
+     * Returned by {@link #get(int, String)} for a variable that has no value at all, as opposed
+     * to one that is bound to <code>null</code>.
+     */
+    static final Object UNBOUND = new Object();
+
+    /**
+     * Marks a lazy value that evaluated to <code>null</code>.
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * The <code>get()</code> method of <code>java.util.function.Supplier</code>, or <code>null</code>
+     * on runtimes that do not have it.
+     */
+    private static final Method SUPPLIER_GET = supplierGetMethod();
+
+    /**
+     * The evaluated lazy values of this expansion, indexed by slot. Allocated on first use.
+     */
+    private Object[] evaluated;
+
+    private static Method supplierGetMethod()
+    {
+        try
+        {
+            return Class.forName("java.util.function.Supplier").getMethod("get");
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the bindings backed by the supplied {@link Map}. A <code>null</code> map has no values.
+     *
+     * @param values
+     * @return
+     */
+    static Bindings of(Map<String, Object> values)
+    {
+        return values != null ? new MapBindings(values) : new SlotBindings(null);
+    }
+
+    /**
+     * Returns the bindings backed by the supplied slot array. A <code>null</code> slot is unbound,
+     * and so is every slot of a <code>null</code> array.
+     *
+     * @param slots
+     * @return
+     */
+    static Bindings of(Object[] slots)
+    {
+        return new SlotBindings(slots);
+    }
+
+    /**
+     * Returns the bindings backed by the supplied {@link VariableResolver}. A <code>null</code>
+     * resolver has no values.
+     *
+     * @param resolver
+     * @return
+     */
+    static Bindings of(VariableResolver resolver)
+    {
+        return resolver != null ? new ResolverBindings(resolver) : new SlotBindings(null);
+    }
+
+    /**
+     * Returns the bindings for a row of a batch expansion, which may be a {@link Map}, a slot
+     * array or a {@link VariableResolver}. A <code>null</code> row has no values.
+     *
+     * @param row
+     * @return
+     * @throws IllegalArgumentException if the row is of any other type
+     */
+    @SuppressWarnings("unchecked")
+    static Bindings ofRow(Object row)
+    {
+        if (row == null || row instanceof Object[])
+        {
+            return new SlotBindings((Object[]) row);
+        }
+        if (row instanceof Map)
+        {
+            return new MapBindings((Map<String, Object>) row);
+        }
+        if (row instanceof VariableResolver)
+        {
+            return new ResolverBindings((VariableResolver) row);
+        }
+        throw new IllegalArgumentException("Unsupported row type " + row.getClass().getName()
+                                           + ", expected a Map, an Object[] or a VariableResolver");
+    }
+
+    /**
+     * Returns the value of the variable, or {@link #UNBOUND} if it has none. A lazy value is
+     * evaluated on the first call for its slot and the result is returned from then on.
+     *
+     * @param slot the slot of the variable
+     * @param name the name of the variable
+     * @return the value
+     * @throws VariableExpansionException if a lazy value fails
+     */
+    final Object get(int slot, String name) throws VariableExpansionException
+    {
+        if (evaluated != null && slot < evaluated.length && evaluated[slot] != null)
+        {
+            return evaluated[slot] != NULL_VALUE ? evaluated[slot] : null;
+        }
+        final Object value = lookup(slot, name);
+        if (!isLazy(value))
+        {
+            return value;
+        }
+        final Object result = evaluate(name, value);
+        if (evaluated == null || slot >= evaluated.length)
+        {
+            evaluated = evaluated == null ? new Object[slot + 1] : Arrays.copyOf(evaluated, slot + 1);
+        }
+        evaluated[slot] = result != null ? result : NULL_VALUE;
+        return result;
+    }
+
+    private static boolean isLazy(Object value)
+    {
+        return value instanceof Callable
+               || (SUPPLIER_GET != null && SUPPLIER_GET.getDeclaringClass().isInstance(value));
+    }
+
+    private static Object evaluate(String name, Object value) throws VariableExpansionException
+    {
+        try
+        {
+            if (value instanceof Callable)
+            {
+                return ((Callable<?>) value).call();
+            }
+            return SUPPLIER_GET.invoke(value);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new VariableExpansionException("The value of the variable " + name + " could not be evaluated",
+                                                 e.getCause());
+        }
+        catch (VariableExpansionException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new VariableExpansionException("The value of the variable " + name + " could not be evaluated", e);
+        }
+    }
+
+    /**
+     * Returns the value of the variable as held by the source, or {@link #UNBOUND} if it has none.
+     *
+     * @param slot the slot of the variable
+     * @param name the name of the variable
+     * @return the value
+     */
+    abstract Object lookup(int slot, String name);
+
+    private static final class MapBindings extends Bindings
+    {
+        private final Map<String, Object> values;
+
+        MapBindings(Map<String, Object> values)
+        {
+            this.values = values;
+        }
+
+        @Override
+        Object lookup(int slot, String name)
+        {
+            final Object value = values.get(name);
+            if (value == null && !values.containsKey(name))
+            {
+                return UNBOUND;
+            }
+            return value;
+        }
+    }
+
+    private static final class SlotBindings extends Bindings
+    {
+        private final Object[] slots;
+
+        SlotBindings(Object[] slots)
+        {
+            this.slots = slots != null ? slots : new Object[0];
+        }
+
+        @Override
+        Object lookup(int slot, String name)
+        {
+            if (slot >= slots.length)
+            {
+                return UNBOUND;
+            }
+            final Object value = slots[slot];
+            return value != null ? value : UNBOUND;
+        }
+    }
+
+    private static final class ResolverBindings extends Bindings
+    {
+        private final VariableResolver resolver;
+
+        ResolverBindings(VariableResolver resolver)
+        {
+            this.resolver = resolver;
+        }
+
+        @Override
+        Object lookup(int slot, String name)
+        {
+            if (!resolver.containsVariable(name))
+            {
+                return UNBOUND;
+            }
+            return resolver.resolve(name);
+        }
+    }
+}
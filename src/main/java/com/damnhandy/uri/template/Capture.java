@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.util.UUID;
+
+/**
+ * <p>
+ * A value found by {@link UriMatcher}, held as a range of the matched URI rather than as a
+ * string. Nothing is copied or decoded until the value is asked for, and numbers and UUIDs are
+ * parsed straight from the characters of the URI when they are not percent-encoded.
+ * </p>
+ * <p>
+ * As a {@link CharSequence}, a capture is the text of the URI as it is, before decoding.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+final class Capture implements CharSequence
+{
+
+    private final CharSequence uri;
+
+    private final int start;
+
+    private final int end;
+
+    /**
+     * The decoded value, once it was asked for.
+     */
+    private String decoded;
+
+    Capture(CharSequence uri, int start, int end)
+    {
+        this.uri = uri;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the value with its percent-encoded triplets decoded.
+     *
+     * @return
+     */
+    String decode()
+    {
+        String s = decoded;
+        if (s == null)
+        {
+            s = UriUtil.decode(uri, start, end);
+            decoded = s;
+        }
+        return s;
+    }
+
+    /**
+     * Parses the value as a decimal <code>long</code>.
+     *
+     * @return
+     * @throws NumberFormatException if the value is not a number
+     */
+    long parseLong()
+    {
+        int i = start;
+        final boolean negative = i < end && uri.charAt(i) == '-';
+        if (negative || i < end && uri.charAt(i) == '+')
+        {
+            i++;
+        }
+        // Up to 18 digits cannot overflow; anything else goes the long way for the checks
+        if (i == end || end - i > 18)
+        {
+            return Long.parseLong(decode());
+        }
+        long value = 0;
+        for (; i < end; i++)
+        {
+            final char c = uri.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return Long.parseLong(decode());
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the value as a UUID in its 36 character form.
+     *
+     * @return
+     * @throws IllegalArgumentException if the value is not a UUID
+     */
+    UUID parseUuid()
+    {
+        if (end - start != 36)
+        {
+            return UUID.fromString(decode());
+        }
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        for (int i = 0; i < 36; i++)
+        {
+            final char c = uri.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23)
+            {
+                if (c != '-')
+                {
+                    return UUID.fromString(decode());
+                }
+                continue;
+            }
+            final int digit = c < 128 ? Character.digit(c, 16) : -1;
+            if (digit < 0)
+            {
+                return UUID.fromString(decode());
+            }
+            if (i < 18)
+            {
+                mostSigBits = mostSigBits << 4 | digit;
+            }
+            else
+            {
+                leastSigBits = leastSigBits << 4 | digit;
+            }
+        }
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    @Override
+    public int length()
+    {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if (index < 0 || index >= end - start)
+        {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return uri.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to)
+    {
+        if (from < 0 || to > end - start || from > to)
+        {
+            throw new IndexOutOfBoundsException(from + ", " + to);
+        }
+        return new Capture(uri, start + from, start + to);
+    }
+
+    @Override
+    public String toString()
+    {
+        return uri.subSequence(start, end).toString();
+    }
+}
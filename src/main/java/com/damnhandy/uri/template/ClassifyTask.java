@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * Classifies the lines in a range of a mapped access log on a {@link java.util.concurrent.ForkJoinPool}.
+ * The range is split in halves, at line boundaries, until it is no larger than the threshold;
+ * each leaf then reads its lines one after the other into its own {@link AccessLogClassifier.Report},
+ * and the reports are merged on the way back up. Workers share nothing but the buffer, which they
+ * only read with absolute gets, and the router.
+ * </p>
+ * <p>
+ * Lines are not decoded into strings: the URI is matched through a {@link CharSequence} view of its
+ * bytes, one character per byte.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+final class ClassifyTask extends RecursiveTask<AccessLogClassifier.Report>
+{
+
+    /**
+     * The serialVersionUID
+     */
+    private static final long serialVersionUID = -3618712409785412267L;
+
+    private final AccessLogClassifier classifier;
+
+    private final ByteBuffer buffer;
+
+    private final int from;
+
+    private final int to;
+
+    private final int threshold;
+
+    ClassifyTask(AccessLogClassifier classifier, ByteBuffer buffer, int from, int to, int threshold)
+    {
+        this.classifier = classifier;
+        this.buffer = buffer;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns a threshold that splits the bytes into a few tasks per worker, but not into tasks
+     * so small that the splitting costs more than the classification.
+     *
+     * @param length
+     * @param parallelism
+     * @return
+     */
+    static int threshold(int length, int parallelism)
+    {
+        return Math.max(64 * 1024, length / (parallelism * 4));
+    }
+
+    @Override
+    protected AccessLogClassifier.Report compute()
+    {
+        if (to - from > threshold)
+        {
+            // Split after the end of the line that straddles the middle
+            int middle = (from + to) >>> 1;
+            while (middle < to && buffer.get(middle - 1) != '\n')
+            {
+                middle++;
+            }
+            if (middle < to)
+            {
+                final ClassifyTask second = new ClassifyTask(classifier, buffer, middle, to, threshold);
+                second.fork();
+                final AccessLogClassifier.Report report =
+                    new ClassifyTask(classifier, buffer, from, middle, threshold).compute();
+                report.merge(second.join());
+                return report;
+            }
+        }
+        return classifyRange();
+    }
+
+    private AccessLogClassifier.Report classifyRange()
+    {
+        final AccessLogClassifier.Report report = new AccessLogClassifier.Report();
+        final ByteSequence uri = new ByteSequence(buffer);
+        int start = from;
+        while (start < to)
+        {
+            int end = start;
+            while (end < to && buffer.get(end) != '\n')
+            {
+                end++;
+            }
+            final int lineEnd = end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > start)
+            {
+                classifier.classifyLine(buffer, start, lineEnd, uri, report);
+            }
+            start = end + 1;
+        }
+        return report;
+    }
+
+    /**
+     * A view of a range of bytes as characters, one per byte, that can be moved from line to line.
+     */
+    static final class ByteSequence implements CharSequence
+    {
+        private final ByteBuffer buffer;
+
+        private int start;
+
+        private int end;
+
+        ByteSequence(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        ByteSequence set(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        @Override
+        public int length()
+        {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to)
+        {
+            return new ByteSequence(buffer).set(start + from, start + to);
+        }
+
+        @Override
+        public String toString()
+        {
+            final char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++)
+            {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+}
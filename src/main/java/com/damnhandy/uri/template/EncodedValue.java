@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.UriTemplate.Encoding;
+
+/**
+ * <p>
+ * A value that is already percent-encoded, such as a signed token, a base64url identifier or a
+ * path segment taken from another URI. The template processor copies an {@link EncodedValue}
+ * into the URI as it is instead of encoding it again:
+ * </p>
+ * <pre>
+ * UriTemplate.fromTemplate("/download{?token}")
+ *            .set("token", EncodedValue.of(signedToken, Encoding.U))
+ *            .expand();
+ * </pre>
+ * <p>
+ * The {@link Encoding} states which characters the value may contain. A value encoded for
+ * {@link Encoding#U} contains only unreserved characters and <code>%XX</code> escapes, and can be
+ * used with any operator. A value encoded for {@link Encoding#UR} may also contain reserved
+ * characters; it is copied as it is by the <code>+</code> and <code>#</code> operators, while the
+ * other operators encode its reserved characters and keep its escapes.
+ * </p>
+ * <p>
+ * {@link #of(CharSequence, Encoding)} checks the value once, when it is created, so that a value
+ * that is not actually encoded cannot produce a malformed URI. {@link #trusted(CharSequence, Encoding)}
+ * skips that check for values from a source that is known to be correct.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public final class EncodedValue implements CharSequence
+{
+
+    private final CharSequence value;
+
+    private final Encoding encoding;
+
+    private EncodedValue(final CharSequence value, final Encoding encoding)
+    {
+        this.value = value;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Creates a new EncodedValue after checking that the value only contains characters that are
+     * allowed by the encoding, or valid <code>%XX</code> escapes.
+     *
+     * @param value the encoded value
+     * @param encoding the encoding the value conforms to
+     * @return the new EncodedValue
+     * @throws IllegalArgumentException if the value is not encoded for the encoding
+     */
+    public static EncodedValue of(final CharSequence value, final Encoding encoding)
+    {
+        final int invalid = UriUtil.indexOfUnencoded(value, encoding);
+        if (invalid >= 0)
+        {
+            throw new IllegalArgumentException("The value is not " + encoding + " encoded, found '"
+                                               + value.charAt(invalid) + "' at index " + invalid);
+        }
+        return new EncodedValue(value, encoding);
+    }
+
+    /**
+     * Creates a new EncodedValue without checking the value.
+     *
+     * @param value the encoded value
+     * @param encoding the encoding the value conforms to
+     * @return the new EncodedValue
+     */
+    public static EncodedValue trusted(final CharSequence value, final Encoding encoding)
+    {
+        if (value == null || encoding == null)
+        {
+            throw new NullPointerException();
+        }
+        return new EncodedValue(value, encoding);
+    }
+
+    /**
+     * Returns the encoding the value conforms to.
+     *
+     * @return the encoding
+     */
+    public Encoding getEncoding()
+    {
+        return encoding;
+    }
+
+    /**
+     * Returns true if the value can be copied as it is into an expression that uses the encoding.
+     *
+     * @param target
+     * @return
+     */
+    boolean isEncodedFor(Encoding target)
+    {
+        return encoding == Encoding.U || target == Encoding.UR;
+    }
+
+    @Override
+    public int length()
+    {
+        return value.length();
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return value.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return value.subSequence(start, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        return value.toString();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof EncodedValue))
+        {
+            return false;
+        }
+        final EncodedValue other = (EncodedValue) o;
+        return encoding == other.encoding && value.toString().equals(other.value.toString());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * encoding.hashCode() + value.toString().hashCode();
+    }
+}
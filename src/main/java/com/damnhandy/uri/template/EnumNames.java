@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.UriTemplate.Encoding;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * <p>
+ * The percent-encoded string forms of enum constants, computed once per enum type from the
+ * <code>toString()</code> of each constant, for both encodings.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+final class EnumNames
+{
+
+    /**
+     * For each enum type, the encoded names indexed by encoding ordinal, then constant ordinal.
+     */
+    private static final ClassValue<String[][]> NAMES = new ClassValue<String[][]>()
+    {
+        @Override
+        protected String[][] computeValue(Class<?> type)
+        {
+            final Object[] constants = type.getEnumConstants();
+            final String[][] names = new String[Encoding.values().length][constants.length];
+            try
+            {
+                for (int i = 0; i < constants.length; i++)
+                {
+                    final String name = constants[i].toString();
+                    names[Encoding.U.ordinal()][i] = UriUtil.encode(name);
+                    names[Encoding.UR.ordinal()][i] = UriUtil.encodeFragment(name);
+                }
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            return names;
+        }
+    };
+
+    private EnumNames()
+    {
+    }
+
+    /**
+     * Returns the encoded <code>toString()</code> of the enum constant.
+     *
+     * @param constant an enum constant whose class is the enum type itself
+     * @param encoding the encoding to apply
+     * @return the encoded name
+     */
+    static String encoded(Enum<?> constant, Encoding encoding)
+    {
+        return NAMES.get(constant.getClass())[encoding.ordinal()][constant.ordinal()];
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Receives the URIs produced by {@link UriTemplate#expandAll(Iterable, ExpansionHandler)}, one
+ * call per row of variables, in the order of the rows:
+ * </p>
+ * <pre>
+ * template.expandAll(rows, new ExpansionHandler()
+ * {
+ *     public void expanded(int index, CharSequence uri) throws IOException
+ *     {
+ *         writer.append("&lt;url&gt;&lt;loc&gt;").append(uri).append("&lt;/loc&gt;&lt;/url&gt;\n");
+ *     }
+ * });
+ * </pre>
+ * <p>
+ * The {@link CharSequence} is a buffer that is reused for the next row, so it is only valid for
+ * the duration of the call. Call <code>toString()</code> on it to keep the URI.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public interface ExpansionHandler
+{
+
+    /**
+     * Called with the expanded URI of a row.
+     *
+     * @param index the zero based index of the row
+     * @param uri the expanded URI, only valid for the duration of the call
+     * @throws IOException if the URI could not be written
+     */
+    void expanded(int index, CharSequence uri) throws IOException;
+
+}
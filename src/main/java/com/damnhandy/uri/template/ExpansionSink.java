@@ -0,0 +1,544 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * <p>
+ * The destination of an expansion. Literals, separators and encoded values are appended to the sink
+ * as they are produced, so no intermediate strings are built per expression. The sink keeps track of
+ * the number of characters written so far, which the expansion uses to decide where separators go.
+ * </p>
+ * <p>
+ * Expanded values are always percent-encoded US-ASCII, so the byte oriented sinks write each
+ * character as a single byte without going through a {@link java.nio.charset.CharsetEncoder}.
+ * Only literal text taken verbatim from the template can contain other characters, which are
+ * written as UTF-8.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+abstract class ExpansionSink
+{
+
+    /**
+     * The number of characters written to this sink.
+     */
+    private int length;
+
+    /**
+     * The value of {@link #length} at which the sink refuses to accept more characters.
+     */
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * Creates a sink that appends to the supplied {@link StringBuilder}.
+     *
+     * @param builder the target
+     * @return the sink
+     */
+    static ExpansionSink of(StringBuilder builder)
+    {
+        return new StringBuilderSink(builder);
+    }
+
+    /**
+     * Creates a sink that appends to the supplied {@link Appendable}. An {@link IOException}
+     * raised by the target is rethrown as a {@link SinkIOException}.
+     *
+     * @param appendable the target
+     * @return the sink
+     */
+    static ExpansionSink of(Appendable appendable)
+    {
+        if (appendable instanceof StringBuilder)
+        {
+            return new StringBuilderSink((StringBuilder) appendable);
+        }
+        return new AppendableSink(appendable);
+    }
+
+    /**
+     * Creates a sink that puts bytes into the supplied {@link ByteBuffer}, starting at its current
+     * position. A {@link BufferOverflowException} is raised if the buffer runs out of space.
+     *
+     * @param buffer the target
+     * @return the sink
+     */
+    static ExpansionSink of(ByteBuffer buffer)
+    {
+        return new ByteBufferSink(buffer);
+    }
+
+    /**
+     * Creates a sink that writes bytes to the supplied {@link OutputStream}. Bytes are collected in
+     * a small chunk before they are written, so {@link #finish()} must be called once the expansion
+     * is complete. An {@link IOException} raised by the stream is rethrown as a {@link SinkIOException}.
+     *
+     * @param stream the target
+     * @return the sink
+     */
+    static ExpansionSink of(OutputStream stream)
+    {
+        return new OutputStreamSink(stream);
+    }
+
+    /**
+     * Creates a sink that discards its output and only counts the number of bytes that the
+     * byte oriented sinks would write.
+     *
+     * @return the sink
+     */
+    static ExpansionSink counting()
+    {
+        return new CountingSink();
+    }
+
+    /**
+     * Returns the number of bytes written. Only meaningful for the byte oriented sinks.
+     *
+     * @return the number of bytes written
+     */
+    int byteCount()
+    {
+        return length;
+    }
+
+    /**
+     * Writes out anything the sink has held back. Called once the expansion is complete.
+     */
+    void finish()
+    {
+    }
+
+    /**
+     * Returns true if the range of the character sequence only contains US-ASCII characters.
+     *
+     * @param s
+     * @param start
+     * @param end
+     * @return
+     */
+    static boolean isAscii(CharSequence s, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (s.charAt(i) >= 0x80)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the range of the character sequence as UTF-8.
+     *
+     * @param s
+     * @param start
+     * @param end
+     * @return
+     */
+    static byte[] utf8(CharSequence s, int start, int end)
+    {
+        return s.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of characters written to this sink.
+     *
+     * @return the number of characters written
+     */
+    final int length()
+    {
+        return length;
+    }
+
+    /**
+     * Lets the sink accept at most <code>maximumLength</code> more characters. Appending beyond
+     * that raises a {@link LimitExceededException} before anything is written.
+     *
+     * @param maximumLength
+     */
+    final void limit(int maximumLength)
+    {
+        limit = maximumLength > Integer.MAX_VALUE - length ? Integer.MAX_VALUE : length + maximumLength;
+    }
+
+    /**
+     * Prepares the sink for the next row of a batch: forgets the characters written so far and
+     * lifts the limit. A sink that is reused across rows must be reset before each of them, or the
+     * count would run past {@link Integer#MAX_VALUE} on a long batch.
+     */
+    final void reset()
+    {
+        length = 0;
+        limit = Integer.MAX_VALUE;
+    }
+
+    final ExpansionSink append(char c)
+    {
+        if (length == limit)
+        {
+            throw new LimitExceededException();
+        }
+        write(c);
+        length++;
+        return this;
+    }
+
+    final ExpansionSink append(CharSequence s)
+    {
+        return append(s, 0, s.length());
+    }
+
+    final ExpansionSink append(CharSequence s, int start, int end)
+    {
+        if (end - start > limit - length)
+        {
+            throw new LimitExceededException();
+        }
+        write(s, start, end);
+        length += end - start;
+        return this;
+    }
+
+    /**
+     * Appends the decimal digits of the number, with a leading minus sign if it is negative.
+     *
+     * @param value
+     * @return
+     */
+    final ExpansionSink appendDecimal(long value)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            return append(Long.toString(value));
+        }
+        if (value < 0)
+        {
+            append('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10)
+        {
+            divisor *= 10;
+        }
+        while (divisor > 0)
+        {
+            append((char) ('0' + value / divisor));
+            value %= divisor;
+            divisor /= 10;
+        }
+        return this;
+    }
+
+    /**
+     * Appends the canonical 36 character form of the UUID, as returned by {@link UUID#toString()}.
+     *
+     * @param uuid
+     * @return
+     */
+    final ExpansionSink appendUuid(UUID uuid)
+    {
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+        appendHex(msb >>> 32, 8).append('-');
+        appendHex(msb >>> 16, 4).append('-');
+        appendHex(msb, 4).append('-');
+        appendHex(lsb >>> 48, 4).append('-');
+        return appendHex(lsb, 12);
+    }
+
+    private ExpansionSink appendHex(long value, int digits)
+    {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+        {
+            append(Character.forDigit((int) (value >>> shift) & 0xF, 16));
+        }
+        return this;
+    }
+
+    protected abstract void write(char c);
+
+    protected abstract void write(CharSequence s, int start, int end);
+
+    /**
+     * Carries an {@link IOException} raised by the target of a sink out of the expansion.
+     */
+    static final class SinkIOException extends RuntimeException
+    {
+        /**
+         * The serialVersionUID
+         */
+        private static final long serialVersionUID = 2304875893408575417L;
+
+        SinkIOException(IOException cause)
+        {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause()
+        {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Raised by a sink when the expansion reaches the limit set with {@link #limit(int)}. The
+     * expansion turns it into a {@link UriTooLongException} that names the variable.
+     */
+    static final class LimitExceededException extends RuntimeException
+    {
+        /**
+         * The serialVersionUID
+         */
+        private static final long serialVersionUID = -3106245127745823540L;
+
+        LimitExceededException()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class StringBuilderSink extends ExpansionSink
+    {
+        private final StringBuilder builder;
+
+        StringBuilderSink(StringBuilder builder)
+        {
+            this.builder = builder;
+        }
+
+        @Override
+        protected void write(char c)
+        {
+            builder.append(c);
+        }
+
+        @Override
+        protected void write(CharSequence s, int start, int end)
+        {
+            if (start == 0 && end == s.length() && s instanceof String)
+            {
+                builder.append((String) s);
+            }
+            else
+            {
+                builder.append(s, start, end);
+            }
+        }
+    }
+
+    private static final class AppendableSink extends ExpansionSink
+    {
+        private final Appendable appendable;
+
+        AppendableSink(Appendable appendable)
+        {
+            this.appendable = appendable;
+        }
+
+        @Override
+        protected void write(char c)
+        {
+            try
+            {
+                appendable.append(c);
+            }
+            catch (IOException e)
+            {
+                throw new SinkIOException(e);
+            }
+        }
+
+        @Override
+        protected void write(CharSequence s, int start, int end)
+        {
+            try
+            {
+                appendable.append(s, start, end);
+            }
+            catch (IOException e)
+            {
+                throw new SinkIOException(e);
+            }
+        }
+    }
+
+    private static final class ByteBufferSink extends ExpansionSink
+    {
+        private final ByteBuffer buffer;
+
+        private int bytes;
+
+        ByteBufferSink(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        int byteCount()
+        {
+            return bytes;
+        }
+
+        @Override
+        protected void write(char c)
+        {
+            buffer.put((byte) c);
+            bytes++;
+        }
+
+        @Override
+        protected void write(CharSequence s, int start, int end)
+        {
+            if (!isAscii(s, start, end))
+            {
+                final byte[] encoded = utf8(s, start, end);
+                buffer.put(encoded);
+                bytes += encoded.length;
+                return;
+            }
+            if (buffer.remaining() < end - start)
+            {
+                throw new BufferOverflowException();
+            }
+            for (int i = start; i < end; i++)
+            {
+                buffer.put((byte) s.charAt(i));
+            }
+            bytes += end - start;
+        }
+    }
+
+    private static final class OutputStreamSink extends ExpansionSink
+    {
+        private final OutputStream stream;
+
+        private final byte[] chunk = new byte[512];
+
+        private int count;
+
+        private int bytes;
+
+        OutputStreamSink(OutputStream stream)
+        {
+            this.stream = stream;
+        }
+
+        @Override
+        int byteCount()
+        {
+            return bytes;
+        }
+
+        @Override
+        protected void write(char c)
+        {
+            if (count == chunk.length)
+            {
+                flushChunk();
+            }
+            chunk[count++] = (byte) c;
+            bytes++;
+        }
+
+        @Override
+        protected void write(CharSequence s, int start, int end)
+        {
+            if (!isAscii(s, start, end))
+            {
+                final byte[] encoded = utf8(s, start, end);
+                flushChunk();
+                try
+                {
+                    stream.write(encoded);
+                }
+                catch (IOException e)
+                {
+                    throw new SinkIOException(e);
+                }
+                bytes += encoded.length;
+                return;
+            }
+            for (int i = start; i < end; i++)
+            {
+                if (count == chunk.length)
+                {
+                    flushChunk();
+                }
+                chunk[count++] = (byte) s.charAt(i);
+            }
+            bytes += end - start;
+        }
+
+        @Override
+        void finish()
+        {
+            flushChunk();
+        }
+
+        private void flushChunk()
+        {
+            if (count > 0)
+            {
+                try
+                {
+                    stream.write(chunk, 0, count);
+                }
+                catch (IOException e)
+                {
+                    throw new SinkIOException(e);
+                }
+                count = 0;
+            }
+        }
+    }
+
+    private static final class CountingSink extends ExpansionSink
+    {
+        private int bytes;
+
+        @Override
+        int byteCount()
+        {
+            return bytes;
+        }
+
+        @Override
+        protected void write(char c)
+        {
+            bytes++;
+        }
+
+        @Override
+        protected void write(CharSequence s, int start, int end)
+        {
+            bytes += isAscii(s, start, end) ? end - start : utf8(s, start, end).length;
+        }
+    }
+}
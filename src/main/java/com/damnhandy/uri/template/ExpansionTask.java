@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Expands a range of rows of variables on a {@link java.util.concurrent.ForkJoinPool}. The range is
+ * split in halves until it is no larger than the threshold; each leaf then expands its rows one
+ * after the other into its own buffer, so workers share nothing but the template and the rows.
+ * </p>
+ * <p>
+ * Results are either stored by row index, which keeps the input order, or passed to a handler as
+ * soon as they are produced, from whichever worker produced them.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+final class ExpansionTask extends RecursiveAction
+{
+
+    /**
+     * The serialVersionUID
+     */
+    private static final long serialVersionUID = 6118342009418557741L;
+
+    private final UriTemplate template;
+
+    private final List<?> rows;
+
+    private final int from;
+
+    private final int to;
+
+    private final int threshold;
+
+    /**
+     * Receives the URIs by row index, or <code>null</code> if they go to the handler.
+     */
+    private final String[] results;
+
+    private final ExpansionHandler handler;
+
+    ExpansionTask(UriTemplate template, List<?> rows, int from, int to, int threshold, String[] results,
+                  ExpansionHandler handler)
+    {
+        this.template = template;
+        this.rows = rows;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+        this.results = results;
+        this.handler = handler;
+    }
+
+    /**
+     * Returns a threshold that splits the rows into a few tasks per worker, but not into
+     * tasks so small that the splitting costs more than the expansion.
+     *
+     * @param rows
+     * @param parallelism
+     * @return
+     */
+    static int threshold(int rows, int parallelism)
+    {
+        return Math.max(64, rows / (parallelism * 4));
+    }
+
+    @Override
+    protected void compute()
+    {
+        if (to - from <= threshold)
+        {
+            expandRange();
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        invokeAll(new ExpansionTask(template, rows, from, middle, threshold, results, handler),
+                  new ExpansionTask(template, rows, middle, to, threshold, results, handler));
+    }
+
+    private void expandRange()
+    {
+        final StringBuilder b = new StringBuilder();
+        final ExpansionSink sink = ExpansionSink.of(b);
+        for (int i = from; i < to; i++)
+        {
+            b.setLength(0);
+            sink.reset();
+            template.expandRow(rows.get(i), sink);
+            if (results != null)
+            {
+                results[i] = b.toString();
+            }
+            else
+            {
+                try
+                {
+                    handler.expanded(i, b);
+                }
+                catch (IOException e)
+                {
+                    throw new ExpansionSink.SinkIOException(e);
+                }
+            }
+        }
+    }
+}
@@ -80,7 +80,7 @@ public class Expression extends UriTemplateComponent
     /**
      * The Patter that would be used to reverse match this expression
      */
-    private Pattern matchPattern;
+    private volatile Pattern matchPattern;
 
 
     /**
@@ -372,11 +372,13 @@ public class Expression extends UriTemplateComponent
     @Override
     public Pattern getMatchPattern()
     {
-        if (this.matchPattern == null)
+        Pattern pattern = this.matchPattern;
+        if (pattern == null)
         {
-            this.matchPattern = buildMatchingPattern();
+            pattern = buildMatchingPattern();
+            this.matchPattern = pattern;
         }
-        return this.matchPattern;
+        return pattern;
     }
 
     /**
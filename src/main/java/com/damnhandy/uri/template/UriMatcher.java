@@ -0,0 +1,823 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.UriTemplateMatch.UnknownParameters;
+import com.damnhandy.uri.template.impl.Modifier;
+import com.damnhandy.uri.template.impl.Operator;
+import com.damnhandy.uri.template.impl.VarSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Matches URIs against the components of a template and extracts the variable values. The matcher
+ * walks the URI from left to right:
+ * </p>
+ * <ul>
+ * <li>a literal must appear as it is at the current position</li>
+ * <li>an expression ends at the first occurrence of the literal that follows it, or at the end of
+ * the URI if that literal ends the template; the values of <code>{+var}</code> and
+ * <code>{#var}</code> may contain the literal, so if the rest of the URI does not match, they are
+ * tried up to each later occurrence in turn</li>
+ * <li>within that range, each value ends at the first character that its operator could not have
+ * produced: a separator, the first character of the following expression, or a character that
+ * the operator would have percent-encoded</li>
+ * <li>unnamed variables are matched by position; the last variable of an expression takes up
+ * the separators that follow, so that <code>{.ext}</code> matches <code>.tar.gz</code></li>
+ * <li>the <code>name=value</code> pairs of the <code>;</code> operator, or of consecutive
+ * <code>?</code> and <code>&amp;</code> expressions, are read once and bound to the variables by
+ * name, in any order; pairs that no variable claims are handled as the
+ * {@link UriTemplateMatch.UnknownParameters} policy says</li>
+ * </ul>
+ * <p>
+ * Matching takes time linear in the length of the URI, except for the later occurrences that a
+ * reserved expression retries, each of which matches the rest of the URI again. Where a URI could
+ * have been produced by more than one set of values, the matcher picks the one described above.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+final class UriMatcher
+{
+
+    /**
+     * The characters of a value that was percent-encoded with {@link UriTemplate.Encoding#U}, plus
+     * the comma that separates list elements.
+     */
+    private static final boolean[] VALUE_CHARS = new boolean[128];
+
+    /**
+     * {@link #VALUE_CHARS} plus the <code>=</code> between the names and values of an exploded map.
+     */
+    private static final boolean[] PAIR_CHARS = new boolean[128];
+
+    /**
+     * The characters of a value that was percent-encoded with {@link UriTemplate.Encoding#UR}.
+     */
+    private static final boolean[] RESERVED_VALUE_CHARS = new boolean[128];
+
+    /**
+     * The characters of a query parameter value: anything allowed in a query but the <code>&amp;</code>
+     * that separates the parameters. Inbound URIs often leave characters such as <code>/</code> and
+     * <code>?</code> unencoded there.
+     */
+    private static final boolean[] QUERY_CHARS = new boolean[128];
+
+    /**
+     * {@link #QUERY_CHARS} without the <code>=</code> that ends a parameter name.
+     */
+    private static final boolean[] QUERY_NAME_CHARS = new boolean[128];
+
+    static
+    {
+        for (char c = 'a'; c <= 'z'; c++)
+        {
+            VALUE_CHARS[c] = true;
+            VALUE_CHARS[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++)
+        {
+            VALUE_CHARS[c] = true;
+        }
+        for (char c : "-._~%,".toCharArray())
+        {
+            VALUE_CHARS[c] = true;
+        }
+        System.arraycopy(VALUE_CHARS, 0, PAIR_CHARS, 0, VALUE_CHARS.length);
+        PAIR_CHARS['='] = true;
+        System.arraycopy(VALUE_CHARS, 0, RESERVED_VALUE_CHARS, 0, VALUE_CHARS.length);
+        for (char c : UriUtil.GENERAL_DELIM_CHARS)
+        {
+            RESERVED_VALUE_CHARS[c] = true;
+        }
+        for (char c : "!$&'()*+,;=".toCharArray())
+        {
+            RESERVED_VALUE_CHARS[c] = true;
+        }
+        System.arraycopy(RESERVED_VALUE_CHARS, 0, QUERY_CHARS, 0, RESERVED_VALUE_CHARS.length);
+        for (char c : "&#[]".toCharArray())
+        {
+            QUERY_CHARS[c] = false;
+        }
+        System.arraycopy(QUERY_CHARS, 0, QUERY_NAME_CHARS, 0, QUERY_CHARS.length);
+        QUERY_NAME_CHARS['='] = false;
+    }
+
+    private final Step[] steps;
+
+    UriMatcher(UriTemplateComponent[] plan)
+    {
+        final List<Step> list = new ArrayList<Step>(plan.length);
+        for (int i = 0; i < plan.length; i++)
+        {
+            final UriTemplateComponent next = i + 1 < plan.length ? plan[i + 1] : null;
+            final Step step = plan[i] instanceof Expression
+                              ? new Step((Expression) plan[i], next, i + 2 == plan.length)
+                              : new Step(plan[i].getValue());
+            final Step previous = list.isEmpty() ? null : list.get(list.size() - 1);
+            // The pairs of {?a}{&b} are read together so that they may come in any order
+            if (previous != null && previous.named && step.named && previous.stop != 0
+                && previous.query == step.query)
+            {
+                list.set(list.size() - 1, new Step(previous, step));
+            }
+            else
+            {
+                list.add(step);
+            }
+        }
+        steps = list.toArray(new Step[list.size()]);
+    }
+
+    /**
+     * Returns the steps of the matcher, one per template component.
+     *
+     * @return
+     */
+    Step[] steps()
+    {
+        return steps;
+    }
+
+    /**
+     * Matches the URI against the template.
+     *
+     * @param uri the URI
+     * @param policy what to do with parameters that no variable claims
+     * @return the match, or {@link UriTemplateMatch#NO_MATCH}
+     */
+    UriTemplateMatch match(CharSequence uri, UnknownParameters policy)
+    {
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+        final Map<String, List<String>> unknown = policy == UnknownParameters.COLLECT
+                                                  ? new LinkedHashMap<String, List<String>>() : null;
+        return matchSteps(0, uri, 0, values, policy, unknown) ? UriTemplateMatch.of(values, unknown)
+                                                              : UriTemplateMatch.NO_MATCH;
+    }
+
+    /**
+     * Matches the steps from the given one on against the URI from the given position.
+     *
+     * @return true if the rest of the URI matches
+     */
+    private boolean matchSteps(int index, CharSequence uri, int pos, Map<String, Object> values,
+                               UnknownParameters policy, Map<String, List<String>> unknown)
+    {
+        for (int i = index; i < steps.length; i++)
+        {
+            final Step step = steps[i];
+            if (step.literal != null)
+            {
+                if (!regionMatches(uri, pos, uri.length(), step.literal))
+                {
+                    return false;
+                }
+                pos += step.literal.length();
+            }
+            else if (step.reserved && step.nextLiteral != null && !step.nextLiteralIsLast)
+            {
+                // The value may contain the literal that follows: try each occurrence until the rest matches
+                for (int end = step.regionEnd(uri, pos); end >= 0; end = indexOf(uri, step.nextLiteral, end + 1))
+                {
+                    final Map<String, Object> branch = new LinkedHashMap<String, Object>(values);
+                    final Map<String, List<String>> branchUnknown = unknown == null ? null : copy(unknown);
+                    final int next = matchExpression(step, uri, pos, end, step.stop, branch, policy, branchUnknown);
+                    if (next >= 0 && matchSteps(i + 1, uri, next, branch, policy, branchUnknown))
+                    {
+                        values.putAll(branch);
+                        if (unknown != null)
+                        {
+                            unknown.clear();
+                            unknown.putAll(branchUnknown);
+                        }
+                        return true;
+                    }
+                }
+                return false;
+            }
+            else
+            {
+                final int end = step.regionEnd(uri, pos);
+                pos = end < 0 ? -1 : matchExpression(step, uri, pos, end, step.stop, values, policy, unknown);
+                if (pos < 0)
+                {
+                    return false;
+                }
+            }
+        }
+        return pos == uri.length();
+    }
+
+    /**
+     * Copies the parameters collected so far for a branch that may fail. The lists are appended
+     * to while matching, so they are copied too.
+     *
+     * @param unknown
+     * @return
+     */
+    static Map<String, List<String>> copy(Map<String, List<String>> unknown)
+    {
+        final Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> entry : unknown.entrySet())
+        {
+            copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Matches an expression within <code>[pos, end)</code>.
+     *
+     * @param stop the operator character of the expression that follows, at which a value ends, or 0
+     * @param policy what to do with parameters that no variable claims
+     * @param unknown receives the parameters that no variable claims if the policy is
+     *                {@link UnknownParameters#COLLECT}
+     * @return the position after the expression, or -1 if the URI cannot match
+     */
+    static int matchExpression(Step step, CharSequence uri, int pos, int end, char stop, Map<String, Object> values,
+                               UnknownParameters policy, Map<String, List<String>> unknown)
+    {
+        if (step.named)
+        {
+            return matchPairs(step, uri, pos, end, stop, values, policy, unknown);
+        }
+        final int start = pos;
+        if (step.prefix != 0)
+        {
+            // An expression without defined variables expands to nothing
+            if (pos == end || uri.charAt(pos) != step.prefix)
+            {
+                return pos;
+            }
+            pos++;
+        }
+        int matched = -1;
+        for (int v = 0; v < step.names.length; v++)
+        {
+            final String name = step.names[v];
+            int p = pos;
+            if (step.explode[v])
+            {
+                p = matchListExplode(step, name, uri, p, end, stop, values);
+                if (p == -2)
+                {
+                    return -1;
+                }
+                if (p < 0)
+                {
+                    continue;
+                }
+            }
+            else
+            {
+                // The last variable takes up the separators that follow, which are not values of their own
+                final int valueEnd = scan(step, VALUE_CHARS, uri, p, end, stop, v < step.names.length - 1);
+                if (step.prefix == 0 && v == 0 && valueEnd == p)
+                {
+                    break;
+                }
+                if (!put(values, name, value(step, uri, p, valueEnd)))
+                {
+                    return -1;
+                }
+                p = valueEnd;
+            }
+            matched = p;
+            if (p < end && uri.charAt(p) == step.separator)
+            {
+                pos = p + 1;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (matched < 0)
+        {
+            // The operator prefix is there but none of the variables are
+            return step.prefix != 0 ? -1 : start;
+        }
+        return matched;
+    }
+
+    /**
+     * Matches the <code>name=value</code> pairs of a named operator. The pairs are read into an
+     * index of offsets first, then bound to the variables by name:
+     * <ul>
+     * <li>a variable named by one pair takes its value; a value with commas is a list</li>
+     * <li>a variable named by several pairs, or an exploded one, takes the list of their values</li>
+     * <li>the first exploded variable that no pair names takes the pairs that no other variable
+     * claims, as a map</li>
+     * </ul>
+     * Any pairs left over are ignored, collected or make the URI fail to match, as the policy says.
+     *
+     * @return the position after the pairs, or -1 if the URI cannot match
+     */
+    private static int matchPairs(Step step, CharSequence uri, int pos, int end, char stop,
+                                  Map<String, Object> values, UnknownParameters policy, Map<String, List<String>> unknown)
+    {
+        // An expression without defined variables expands to nothing
+        if (pos == end || step.prefixes.indexOf(uri.charAt(pos)) < 0)
+        {
+            return pos;
+        }
+        final boolean[] nameChars = step.query ? QUERY_NAME_CHARS : VALUE_CHARS;
+        final boolean[] valueChars = step.query ? QUERY_CHARS : VALUE_CHARS;
+
+        // Four offsets per pair: name start and end, value start and end
+        int[] pairs = new int[16];
+        int count = 0;
+        int p = pos + 1;
+        while (true)
+        {
+            final int nameEnd = scan(step, nameChars, uri, p, end, stop, true);
+            int valueStart = nameEnd;
+            int valueEnd = nameEnd;
+            if (nameEnd < end && uri.charAt(nameEnd) == '=')
+            {
+                valueStart = nameEnd + 1;
+                valueEnd = scan(step, valueChars, uri, valueStart, end, stop, true);
+            }
+            if (valueEnd > p)
+            {
+                if (count * 4 == pairs.length)
+                {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+                pairs[count * 4] = p;
+                pairs[count * 4 + 1] = nameEnd;
+                pairs[count * 4 + 2] = valueStart;
+                pairs[count * 4 + 3] = valueEnd;
+                count++;
+            }
+            p = valueEnd;
+            if (p < end && uri.charAt(p) == step.separator)
+            {
+                p++;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        final boolean[] claimed = new boolean[count];
+        final boolean[] bound = new boolean[step.names.length];
+        for (int v = 0; v < step.names.length; v++)
+        {
+            final String name = step.names[v];
+            int first = -1;
+            List<String> list = null;
+            for (int i = 0; i < count; i++)
+            {
+                if (claimed[i] || !regionEquals(uri, pairs[i * 4], pairs[i * 4 + 1], name))
+                {
+                    continue;
+                }
+                claimed[i] = true;
+                if (first < 0 && !step.explode[v])
+                {
+                    first = i;
+                    continue;
+                }
+                if (list == null)
+                {
+                    list = new ArrayList<String>();
+                    if (first >= 0)
+                    {
+                        list.add(UriUtil.decode(uri, pairs[first * 4 + 2], pairs[first * 4 + 3]));
+                    }
+                }
+                list.add(UriUtil.decode(uri, pairs[i * 4 + 2], pairs[i * 4 + 3]));
+            }
+            if (list == null && first < 0)
+            {
+                continue;
+            }
+            bound[v] = true;
+            final Object value = list != null ? list : value(step, uri, pairs[first * 4 + 2], pairs[first * 4 + 3]);
+            if (!put(values, name, value))
+            {
+                return -1;
+            }
+        }
+
+        Map<String, String> map = null;
+        for (int v = 0; v < step.names.length && map == null; v++)
+        {
+            if (step.explode[v] && !bound[v])
+            {
+                map = new LinkedHashMap<String, String>();
+                for (int i = 0; i < count; i++)
+                {
+                    if (!claimed[i])
+                    {
+                        claimed[i] = true;
+                        map.put(UriUtil.decode(uri, pairs[i * 4], pairs[i * 4 + 1]),
+                                UriUtil.decode(uri, pairs[i * 4 + 2], pairs[i * 4 + 3]));
+                    }
+                }
+                if (!map.isEmpty() && !put(values, step.names[v], map))
+                {
+                    return -1;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++)
+        {
+            if (claimed[i] || policy == UnknownParameters.IGNORE)
+            {
+                continue;
+            }
+            if (policy == UnknownParameters.REJECT)
+            {
+                return -1;
+            }
+            final String name = UriUtil.decode(uri, pairs[i * 4], pairs[i * 4 + 1]);
+            List<String> list = unknown.get(name);
+            if (list == null)
+            {
+                list = new ArrayList<String>(1);
+                unknown.put(name, list);
+            }
+            list.add(UriUtil.decode(uri, pairs[i * 4 + 2], pairs[i * 4 + 3]));
+        }
+        return p;
+    }
+
+    /**
+     * Matches the elements of an exploded variable of an unnamed operator. Elements that all hold
+     * a <code>name=value</code> pair make a map, others a list.
+     *
+     * @return the position after the elements, or -1 if the variable is not defined
+     */
+    private static int matchListExplode(Step step, String name, CharSequence uri, int p, int end, char stop,
+                                        Map<String, Object> values)
+    {
+        final int first = p;
+        final List<String> elements = new ArrayList<String>();
+        boolean pairs = !step.reserved;
+        while (true)
+        {
+            final int e = scan(step, step.reserved ? RESERVED_VALUE_CHARS : PAIR_CHARS, uri, p, end, stop, true);
+            pairs &= indexOf(uri, '=', p, e) >= 0;
+            elements.add(uri.subSequence(p, e).toString());
+            p = e;
+            if (p < end && uri.charAt(p) == step.separator)
+            {
+                p++;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (step.prefix == 0 && p == first)
+        {
+            return -1;
+        }
+        final Object value;
+        if (pairs)
+        {
+            final Map<String, String> map = new LinkedHashMap<String, String>();
+            for (String element : elements)
+            {
+                final int eq = element.indexOf('=');
+                map.put(UriUtil.decode(element, 0, eq), UriUtil.decode(element, eq + 1, element.length()));
+            }
+            value = map;
+        }
+        else
+        {
+            final List<String> list = new ArrayList<String>(elements.size());
+            for (String element : elements)
+            {
+                list.add(UriUtil.decode(element, 0, element.length()));
+            }
+            value = list;
+        }
+        return put(values, name, value) ? p : -2;
+    }
+
+    /**
+     * Returns the end of the value that starts at the position.
+     */
+    private static int scan(Step step, boolean[] chars, CharSequence uri, int p, int end, char stop,
+                            boolean stopAtSeparator)
+    {
+        if (step.reserved)
+        {
+            chars = RESERVED_VALUE_CHARS;
+        }
+        while (p < end)
+        {
+            final char c = uri.charAt(p);
+            if (c >= 128 || !chars[c] || c == stop || (stopAtSeparator && c == step.separator))
+            {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Returns a single value as a {@link Capture}, to be decoded when it is asked for. A value of
+     * an operator that encodes commas is split into a list at the commas that separate its
+     * elements.
+     */
+    private static Object value(Step step, CharSequence uri, int start, int end)
+    {
+        if (step.reserved || indexOf(uri, ',', start, end) < 0)
+        {
+            return new Capture(uri, start, end);
+        }
+        final List<String> list = new ArrayList<String>();
+        int p = start;
+        int comma;
+        while ((comma = indexOf(uri, ',', p, end)) >= 0)
+        {
+            list.add(UriUtil.decode(uri, p, comma));
+            p = comma + 1;
+        }
+        list.add(UriUtil.decode(uri, p, end));
+        return list;
+    }
+
+    /**
+     * Stores the value of the variable. A variable that appears more than once in the template
+     * must have the same value everywhere.
+     *
+     * @return false if the variable already has a different value
+     */
+    private static boolean put(Map<String, Object> values, String name, Object value)
+    {
+        final Object previous = values.put(name, value);
+        return previous == null || UriTemplateMatch.resolve(previous).equals(UriTemplateMatch.resolve(value));
+    }
+
+    private static boolean regionEquals(CharSequence uri, int start, int end, String s)
+    {
+        return end - start == s.length() && regionMatches(uri, start, end, s);
+    }
+
+    static boolean regionMatches(CharSequence uri, int p, int end, String s)
+    {
+        if (end - p < s.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (uri.charAt(p + i) != s.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence s, char c, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (s.charAt(i) == c)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence s, String literal, int from)
+    {
+        if (s instanceof String)
+        {
+            return ((String) s).indexOf(literal, from);
+        }
+        final int last = s.length() - literal.length();
+        for (int i = from; i <= last; i++)
+        {
+            if (regionMatches(s, i, s.length(), literal))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A literal, or an expression with what the matcher needs to know about it and about the
+     * component that follows it.
+     */
+    static final class Step
+    {
+        final String literal;
+
+        final String[] names;
+
+        final boolean[] explode;
+
+        /**
+         * The operator character that starts the expression, or 0 for <code>{var}</code> and
+         * <code>{+var}</code>.
+         */
+        final char prefix;
+
+        final char separator;
+
+        final boolean named;
+
+        final boolean reserved;
+
+        /**
+         * True for the <code>?</code> and <code>&amp;</code> operators.
+         */
+        final boolean query;
+
+        /**
+         * The operator characters that may start the pairs of a named operator: more than one when
+         * <code>{?a}{&amp;b}</code> were merged.
+         */
+        final String prefixes;
+
+        /**
+         * The literal that follows the expression, or <code>null</code>.
+         */
+        final String nextLiteral;
+
+        /**
+         * True if {@link #nextLiteral} ends the template.
+         */
+        final boolean nextLiteralIsLast;
+
+        /**
+         * The operator character of the expression that follows this one, or 0.
+         */
+        final char stop;
+
+        Step(String literal)
+        {
+            this.literal = literal;
+            this.names = null;
+            this.explode = null;
+            this.prefix = 0;
+            this.separator = 0;
+            this.named = false;
+            this.reserved = false;
+            this.query = false;
+            this.prefixes = null;
+            this.nextLiteral = null;
+            this.nextLiteralIsLast = false;
+            this.stop = 0;
+        }
+
+        Step(Expression expression, UriTemplateComponent next, boolean nextIsLast)
+        {
+            final Operator operator = expression.getOperator();
+            final List<VarSpec> varSpecs = expression.getVarSpecs();
+            this.literal = null;
+            this.names = new String[varSpecs.size()];
+            this.explode = new boolean[varSpecs.size()];
+            for (int i = 0; i < names.length; i++)
+            {
+                names[i] = varSpecs.get(i).getVariableName();
+                explode[i] = varSpecs.get(i).getModifier() == Modifier.EXPLODE;
+            }
+            this.prefix = operatorChar(operator);
+            this.separator = operator.getSeparator().charAt(0);
+            this.named = operator.isNamed();
+            this.reserved = operator.getEncoding() == UriTemplate.Encoding.UR;
+            this.query = prefix == '?' || prefix == '&';
+            this.prefixes = String.valueOf(prefix);
+            if (next instanceof Expression)
+            {
+                this.nextLiteral = null;
+                this.nextLiteralIsLast = false;
+                this.stop = operatorChar(((Expression) next).getOperator());
+            }
+            else
+            {
+                this.nextLiteral = next != null ? next.getValue() : null;
+                this.nextLiteralIsLast = nextIsLast;
+                this.stop = 0;
+            }
+        }
+
+        /**
+         * Merges two expressions of named operators that follow each other, so that their pairs are
+         * read together.
+         */
+        Step(Step first, Step second)
+        {
+            this.literal = null;
+            this.names = new String[first.names.length + second.names.length];
+            this.explode = new boolean[names.length];
+            System.arraycopy(first.names, 0, names, 0, first.names.length);
+            System.arraycopy(second.names, 0, names, first.names.length, second.names.length);
+            System.arraycopy(first.explode, 0, explode, 0, first.explode.length);
+            System.arraycopy(second.explode, 0, explode, first.explode.length, second.explode.length);
+            this.prefix = first.prefix;
+            this.separator = first.separator;
+            this.named = true;
+            this.reserved = false;
+            this.query = first.query;
+            this.prefixes = first.prefixes.indexOf(second.prefix) < 0 ? first.prefixes + second.prefix : first.prefixes;
+            this.nextLiteral = second.nextLiteral;
+            this.nextLiteralIsLast = second.nextLiteralIsLast;
+            this.stop = second.stop;
+        }
+
+        private static char operatorChar(Operator operator)
+        {
+            return operator == Operator.NUL || operator == Operator.RESERVED ? 0 : operator.getPrefix().charAt(0);
+        }
+
+        /**
+         * Returns the end of the part of the URI that the expression may take up.
+         *
+         * @return the end, or -1 if the literal that follows is missing
+         */
+        int regionEnd(CharSequence uri, int pos)
+        {
+            if (nextLiteral == null)
+            {
+                return uri.length();
+            }
+            if (nextLiteralIsLast)
+            {
+                final int end = uri.length() - nextLiteral.length();
+                return end >= pos && regionMatches(uri, end, uri.length(), nextLiteral) ? end : -1;
+            }
+            return indexOf(uri, nextLiteral, pos);
+        }
+
+        /**
+         * Returns a description of what the step matches, leaving out what follows it. Two steps
+         * with the same shape match the same text; they differ at most in the names they give to
+         * values found by position, or in the order of their named variables.
+         *
+         * @return
+         */
+        String shape()
+        {
+            if (literal != null)
+            {
+                return "L" + literal;
+            }
+            final StringBuilder b = new StringBuilder("E").append(prefixes).append(separator).append(reserved);
+            final String[] variables = new String[names.length];
+            for (int i = 0; i < names.length; i++)
+            {
+                variables[i] = (named ? names[i] : "") + (explode[i] ? "*" : "");
+            }
+            // Pairs are bound by name, so their order does not matter
+            if (named)
+            {
+                Arrays.sort(variables);
+            }
+            for (String variable : variables)
+            {
+                b.append(',').append(variable);
+            }
+            return b.toString();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Step))
+            {
+                return false;
+            }
+            final Step other = (Step) o;
+            return shape().equals(other.shape()) && Arrays.equals(names, other.names);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return shape().hashCode();
+        }
+    }
+}
@@ -20,13 +20,19 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 /**
@@ -59,6 +65,26 @@ import java.util.regex.Pattern;
  * <pre>
  * http://example.com/search?q=cat&apm;lang=en
  * </pre>
+ * <h3>Thread Safety:</h3>
+ * <p>
+ * The parsed form of a template (its template string, components, expressions and variable
+ * names) is immutable once the instance has been created. Expansion with an explicit set of
+ * variables via {@link #expand(Map)} reads nothing but that parsed form and the supplied
+ * {@link Map}, so a single instance can be held in a static field and expanded concurrently
+ * from any number of threads, each passing its own variables:
+ * </p>
+ * <pre>
+ * private static final UriTemplate SEARCH = UriTemplate.fromTemplate("http://example.com/search{?q,lang}");
+ * ...
+ * String uri = SEARCH.expand(variables);
+ * </pre>
+ * <p>
+ * The values added via the {@link #set(String, Object)} methods, and the date format configured via
+ * {@link #withDefaultDateFormat(String)}, are per-instance state and are not synchronized. Configure
+ * the date format before the template is shared, and do not call <code>set()</code> on a shared instance.
+ * The limits are final: {@link #withMaximumLength(int)} and {@link #withMaximumListSize(int)}
+ * return a configured copy, which can be held in a static field like any other template.
+ * </p>
  *
  *
  * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
@@ -72,7 +98,7 @@ public class UriTemplate implements Serializable
     /**
      * The serialVersionUID
      */
-    private static final long serialVersionUID = -5245084430838445979L;
+    private static final long serialVersionUID = 2811452732317549474L;
 
     public enum Encoding
     {
@@ -111,15 +137,26 @@ public class UriTemplate implements Serializable
         }
     }
 
+    /**
+     * The cache used by {@link #fromTemplate(String)} and the static expand methods, or null
+     * when templates are parsed on every call.
+     */
+    private static volatile UriTemplateCache templateCache;
+
     /**
      * The URI template String
      */
-    private String template;
+    private final String template;
 
     /**
      * A regex string that matches the a URI to the template pattern
      */
-    private Pattern reverseMatchPattern;
+    private volatile Pattern reverseMatchPattern;
+
+    /**
+     * Matches URIs against the template, built on first use by {@link #match(CharSequence)}.
+     */
+    private transient volatile UriMatcher matcher;
 
     /**
      * The collection of values that will be applied to the URI expression in the
@@ -130,17 +167,58 @@ public class UriTemplate implements Serializable
     /**
      *
      */
-    private LinkedList<UriTemplateComponent> components;
+    private final LinkedList<UriTemplateComponent> components;
 
     /**
      *
      */
-    private List<Expression> expressions;
+    private final List<Expression> expressions;
+
+    /**
+     * The expansion plan: the template components in template order. It is built once when
+     * the template is parsed and walked on every expansion, appending literal values as-is
+     * and expression replacements into a single output buffer.
+     */
+    private final UriTemplateComponent[] plan;
 
     /**
      *
      */
-    private Set<String> variables;
+    private final Set<String> variables;
+
+    /**
+     * The slot of each variable name: its index in {@link #getVariables()}.
+     */
+    private final Map<String, Integer> slotIndex;
+
+    /**
+     * The compiled variables of each expression, parallel to the {@link #plan}. Entries for
+     * literals are <code>null</code>.
+     */
+    private final VarEmitter[][] emitterPlan;
+
+    /**
+     * The largest number of elements a list value may have, see {@link #withMaximumListSize(int)}.
+     */
+    private final int maximumListSize;
+
+    /**
+     * The largest number of characters an expanded URI may have, see {@link #withMaximumLength(int)}.
+     */
+    private final int maximumLength;
+
+    /**
+     * The <code>iterator()</code> method of <code>java.util.stream.BaseStream</code>, or
+     * <code>null</code> on runtimes that do not have it.
+     */
+    private static final Method STREAM_ITERATOR = streamIteratorMethod();
+
+    /**
+     * Whether <code>{var}</code> and <code>{+var}</code> expressions take the fast path of
+     * {@link #expandLevelOne(VarEmitter, Bindings, ExpansionSink)}. Only turned off by benchmarks,
+     * to measure the same template both ways.
+     */
+    static boolean levelOneFastPath = true;
 
     /**
      * Create a new UriTemplate.
@@ -150,20 +228,139 @@ public class UriTemplate implements Serializable
      */
     private UriTemplate(final String template) throws MalformedUriTemplateException
     {
-        this.template = template;
-        this.parseTemplateString();
+        this(template, new UriTemplateParser().scan(template));
     }
 
     /**
-     * Create a new UriTemplate.
+     * Create a new UriTemplate. The components are copied, so later changes to the supplied
+     * list are not visible to the template.
      *
      * @param components
      */
     protected UriTemplate(LinkedList<UriTemplateComponent> components)
     {
+        this(buildTemplateStringFromComponents(components), new LinkedList<UriTemplateComponent>(components));
+    }
+
+    /**
+     * Create a new UriTemplate from the template string and its parsed components.
+     *
+     * @param template
+     * @param components
+     */
+    private UriTemplate(final String template, final LinkedList<UriTemplateComponent> components)
+    {
+        this.template = template;
         this.components = components;
-        initExpressions();
-        buildTemplateStringFromComponents();
+        this.plan = components.toArray(new UriTemplateComponent[components.size()]);
+        this.expressions = initExpressions(plan);
+        this.variables = initVariables(expressions);
+        this.slotIndex = initSlotIndex(variables);
+        this.emitterPlan = initEmitterPlan(plan, slotIndex);
+        this.maximumListSize = Integer.MAX_VALUE;
+        this.maximumLength = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Create a new UriTemplate that shares the parsed form and the limits of another template.
+     * Values and the date format are not copied.
+     *
+     * @param compiled
+     */
+    private UriTemplate(final UriTemplate compiled)
+    {
+        this(compiled, compiled.maximumListSize, compiled.maximumLength);
+    }
+
+    /**
+     * Create a new UriTemplate that shares the parsed form of another template, with the supplied
+     * limits. Values and the date format are not copied.
+     *
+     * @param compiled
+     * @param maximumListSize
+     * @param maximumLength
+     */
+    private UriTemplate(final UriTemplate compiled, final int maximumListSize, final int maximumLength)
+    {
+        this.template = compiled.template;
+        this.components = compiled.components;
+        this.plan = compiled.plan;
+        this.expressions = compiled.expressions;
+        this.variables = compiled.variables;
+        this.slotIndex = compiled.slotIndex;
+        this.emitterPlan = compiled.emitterPlan;
+        this.reverseMatchPattern = compiled.reverseMatchPattern;
+        this.matcher = compiled.matcher;
+        this.maximumListSize = maximumListSize;
+        this.maximumLength = maximumLength;
+    }
+
+    /**
+     * Parses the template string into a new UriTemplate, bypassing the template cache.
+     *
+     * @param templateString
+     * @return
+     * @throws MalformedUriTemplateException
+     */
+    static UriTemplate parse(final String templateString) throws MalformedUriTemplateException
+    {
+        return new UriTemplate(templateString);
+    }
+
+    /**
+     * Returns a parsed template for the template string from the template cache, if one
+     * is installed. The returned instance may be shared and must not be modified.
+     *
+     * @param templateString
+     * @return
+     * @throws MalformedUriTemplateException
+     */
+    private static UriTemplate compiled(final String templateString) throws MalformedUriTemplateException
+    {
+        final UriTemplateCache cache = templateCache;
+        if (cache == null)
+        {
+            return new UriTemplate(templateString);
+        }
+        return cache.shared(templateString);
+    }
+
+    /**
+     * Returns a new template that shares the parsed form and the limits of this template, without
+     * its values.
+     *
+     * @return
+     */
+    UriTemplate copy()
+    {
+        return new UriTemplate(this);
+    }
+
+    /**
+     * <p>
+     * Installs a cache of parsed templates that is consulted by {@link #fromTemplate(String)},
+     * {@link #expand(String, Map)} and {@link #expandPartial(String, Map)}, so that the same
+     * template strings are not parsed over and over again. Pass <code>null</code> to stop caching.
+     * No cache is installed by default.
+     * </p>
+     *
+     * @param cache the cache to use, or null
+     * @since 2.1.9
+     */
+    public static void setTemplateCache(final UriTemplateCache cache)
+    {
+        templateCache = cache;
+    }
+
+    /**
+     * Returns the installed template cache, or null if none is installed.
+     *
+     * @return the template cache
+     * @since 2.1.9
+     */
+    public static UriTemplateCache getTemplateCache()
+    {
+        return templateCache;
     }
 
     /**
@@ -211,7 +408,9 @@ public class UriTemplate implements Serializable
 
     /**
      * <p>
-     * Creates a new {@link UriTemplate} from the template string.
+     * Creates a new {@link UriTemplate} from the template string. When a template cache is
+     * installed via {@link #setTemplateCache(UriTemplateCache)}, the returned template shares
+     * the parsed form of the cached template, but it is still a new instance with its own values.
      * </p>
      *
      * @param templateString
@@ -220,7 +419,12 @@ public class UriTemplate implements Serializable
      */
     public static final UriTemplate fromTemplate(final String templateString) throws MalformedUriTemplateException
     {
-        return new UriTemplate(templateString);
+        final UriTemplateCache cache = templateCache;
+        if (cache == null)
+        {
+            return new UriTemplate(templateString);
+        }
+        return cache.get(templateString);
     }
 
     /**
@@ -278,65 +482,136 @@ public class UriTemplate implements Serializable
      */
     public String[] getVariables()
     {
-        if (variables == null)
+        return variables.toArray(new String[variables.size()]);
+    }
+
+    /**
+     * Collects the expressions found in the expansion plan.
+     *
+     * @param plan
+     * @return
+     */
+    private static List<Expression> initExpressions(UriTemplateComponent[] plan)
+    {
+        final List<Expression> expressions = new ArrayList<Expression>();
+        for (UriTemplateComponent c : plan)
         {
-            variables = new LinkedHashSet<String>();
-            for (Expression e : getExpressions())
+            if (c instanceof Expression)
             {
-                for (VarSpec v : e.getVarSpecs())
-                {
-                    variables.add(v.getVariableName());
-                }
+                expressions.add((Expression) c);
             }
         }
-        return variables.toArray(new String[variables.size()]);
+        return Collections.unmodifiableList(expressions);
     }
 
     /**
-     * Parse the URI template string into the template model.
+     * Collects the unique variable names, in order of appearance, from the expressions.
+     *
+     * @param expressions
+     * @return
      */
-    protected void parseTemplateString() throws MalformedUriTemplateException
+    private static Set<String> initVariables(List<Expression> expressions)
     {
-        final String templateString = getTemplate();
-        final UriTemplateParser scanner = new UriTemplateParser();
-        this.components = scanner.scan(templateString);
-        initExpressions();
+        final Set<String> variables = new LinkedHashSet<String>();
+        for (Expression e : expressions)
+        {
+            for (VarSpec v : e.getVarSpecs())
+            {
+                variables.add(v.getVariableName());
+            }
+        }
+        return Collections.unmodifiableSet(variables);
     }
 
     /**
-     * Initializes the collection of expressions in the template.
+     * Assigns each variable name its slot.
+     *
+     * @param variables
+     * @return
      */
-    private void initExpressions()
+    private static Map<String, Integer> initSlotIndex(Set<String> variables)
     {
-        expressions = new LinkedList<>();
-        for (UriTemplateComponent c : components)
+        final Map<String, Integer> slotIndex = new HashMap<String, Integer>();
+        for (String name : variables)
         {
-            if (c instanceof Expression)
+            slotIndex.put(name, slotIndex.size());
+        }
+        return Collections.unmodifiableMap(slotIndex);
+    }
+
+    /**
+     * Compiles every variable of every expression in the expansion plan, resolving its slot.
+     *
+     * @param plan
+     * @param slotIndex
+     * @return
+     */
+    private static VarEmitter[][] initEmitterPlan(UriTemplateComponent[] plan, Map<String, Integer> slotIndex)
+    {
+        final VarEmitter[][] emitterPlan = new VarEmitter[plan.length][];
+        for (int i = 0; i < plan.length; i++)
+        {
+            if (plan[i] instanceof Expression)
             {
-                expressions.add((Expression) c);
+                final Expression expression = (Expression) plan[i];
+                final List<VarSpec> varSpecs = expression.getVarSpecs();
+                emitterPlan[i] = new VarEmitter[varSpecs.size()];
+                for (int j = 0; j < varSpecs.size(); j++)
+                {
+                    final VarSpec varSpec = varSpecs.get(j);
+                    emitterPlan[i][j] = new VarEmitter(expression.getOperator(), varSpec,
+                                                       slotIndex.get(varSpec.getVariableName()));
+                }
             }
         }
+        return emitterPlan;
     }
 
+    /**
+     * <p>
+     * Returns the slot of the variable: its index in {@link #getVariables()}. The slot is fixed for the
+     * lifetime of the template, so it can be resolved once and used to fill the array passed to
+     * {@link #expand(Object[])}:
+     * </p>
+     * <pre>
+     * private static final UriTemplate REPO = UriTemplate.fromTemplate("/repos{/owner,repo}");
+     * private static final int OWNER = REPO.slotOf("owner");
+     * private static final int NAME = REPO.slotOf("repo");
+     * ...
+     * Object[] slots = new Object[REPO.getVariables().length];
+     * slots[OWNER] = "damnhandy";
+     * slots[NAME] = "Handy-URI-Templates";
+     * String uri = REPO.expand(slots);
+     * </pre>
+     *
+     * @param variableName the name of the variable
+     * @return the slot of the variable, or -1 if the template has no such variable
+     * @since 2.1.9
+     */
+    public int slotOf(String variableName)
+    {
+        final Integer slot = slotIndex.get(variableName);
+        return slot != null ? slot : -1;
+    }
 
-    private void buildTemplateStringFromComponents()
+    private static String buildTemplateStringFromComponents(List<UriTemplateComponent> components)
     {
         StringBuilder b = new StringBuilder();
         for (UriTemplateComponent c : components)
         {
             b.append(c.getValue());
         }
-        this.template = b.toString();
+        return b.toString();
     }
 
-    private void buildReverseMatchRegexFromComponents()
+    private Pattern buildReverseMatchRegexFromComponents()
     {
         StringBuilder b = new StringBuilder();
         for (UriTemplateComponent c : components)
         {
             b.append("(").append(c.getMatchPattern()).append(")");
         }
-        this.reverseMatchPattern = Pattern.compile(b.toString());
+        return Pattern.compile(b.toString());
     }
 
     /**
@@ -346,11 +621,99 @@ public class UriTemplate implements Serializable
      */
     protected Pattern getReverseMatchPattern()
     {
-        if (this.reverseMatchPattern == null)
+        Pattern pattern = this.reverseMatchPattern;
+        if (pattern == null)
+        {
+            pattern = buildReverseMatchRegexFromComponents();
+            this.reverseMatchPattern = pattern;
+        }
+        return pattern;
+    }
+
+    /**
+     * <p>
+     * Matches a URI against the template and returns the values of the variables that it defines,
+     * for example to parse inbound request URIs:
+     * </p>
+     * <pre>
+     * UriTemplateMatch m = UriTemplate.fromTemplate("/repos{/owner,repo}/issues{?state,page}")
+     *                                 .match("/repos/damnhandy/uri-templates/issues?state=open");
+     * m.get("repo");  // "uri-templates"
+     * m.get("page");  // null, the URI does not define it
+     * </pre>
+     * <p>
+     * The URI is matched left to right. An expression ends at the first occurrence of the literal
+     * that follows it, or at the end of the URI if that literal ends the template. The values of
+     * <code>{+...}</code> and <code>{#...}</code> expressions may contain that literal, so if the
+     * rest of the template does not match, later occurrences are tried in turn; only these
+     * retries make the time taken more than linear in the length of the URI. Within an
+     * expression, each value ends at the first character that its operator would not have written
+     * into a value, except that the last value of an unnamed operator also takes up the
+     * separators that follow it, as in <code>{.fmt}</code> matching <code>.tar.gz</code>.
+     * Values of unnamed operators are found by position. The <code>name=value</code> pairs of the
+     * <code>;</code> operator, and of consecutive <code>?</code> and <code>&amp;</code>
+     * expressions, are bound by name in whatever order the URI has them. Values are
+     * percent-decoded. If more than one set of values would expand to the URI, the one found this
+     * way is returned.
+     * </p>
+     * <p>
+     * A URI with parameters that the template does not name does not match; see
+     * {@link #match(CharSequence, UriTemplateMatch.UnknownParameters)}.
+     * </p>
+     * <p>
+     * The values of the match are read from the URI when they are asked for. A URI that is not a
+     * {@link String}, such as a {@link StringBuilder} that is reused, is copied with
+     * <code>toString()</code> first, so that changing it afterwards does not change the match.
+     * </p>
+     *
+     * @param uri the URI to match
+     * @return the match, which tells whether the URI matches the template
+     * @since 2.1.9
+     */
+    public UriTemplateMatch match(CharSequence uri)
+    {
+        return match(uri, UriTemplateMatch.UnknownParameters.REJECT);
+    }
+
+    /**
+     * <p>
+     * Matches a URI against the template like {@link #match(CharSequence)}, handling the
+     * parameters that the template does not name as the policy says:
+     * </p>
+     * <pre>
+     * UriTemplateMatch m = UriTemplate.fromTemplate("/search{?q,page}")
+     *                                 .match("/search?page=2&amp;utm_source=mail&amp;q=uri", UnknownParameters.COLLECT);
+     * m.get("q");                   // "uri"
+     * m.getUnknownParameters();     // {utm_source=[mail]}
+     * </pre>
+     * <p>
+     * A URI that is not a {@link String} is copied first, as for {@link #match(CharSequence)}.
+     * </p>
+     *
+     * @param uri the URI to match
+     * @param unknownParameters what to do with the parameters that the template does not name
+     * @return the match, which tells whether the URI matches the template
+     * @since 2.1.9
+     */
+    public UriTemplateMatch match(CharSequence uri, UriTemplateMatch.UnknownParameters unknownParameters)
+    {
+        return matcher().match(uri.toString(), unknownParameters);
+    }
+
+    /**
+     * Returns the matcher of the template, building it on first use.
+     *
+     * @return
+     */
+    UriMatcher matcher()
+    {
+        UriMatcher m = this.matcher;
+        if (m == null)
         {
-            buildReverseMatchRegexFromComponents();
+            m = new UriMatcher(plan);
+            this.matcher = m;
         }
-        return this.reverseMatchPattern;
+        return m;
     }
 
     /**
@@ -367,9 +730,7 @@ public class UriTemplate implements Serializable
     public static String expand(final String templateString, Map<String, Object> values)
     throws MalformedUriTemplateException, VariableExpansionException
     {
-        UriTemplate t = new UriTemplate(templateString);
-        t.set(values);
-        return t.expand();
+        return compiled(templateString).expand(values);
     }
 
     /**
@@ -386,13 +747,13 @@ public class UriTemplate implements Serializable
     public static String expandPartial(final String templateString, Map<String, Object> values)
     throws MalformedUriTemplateException, VariableExpansionException
     {
-        UriTemplate t = new UriTemplate(templateString);
-        t.set(values);
-        return t.expandPartial();
+        return compiled(templateString).expandPartial(values);
     }
 
     /**
-     * Expand the URI template using the supplied values
+     * Expand the URI template using the supplied values. The values only apply to this call:
+     * they are not stored on the template and values added via {@link #set(String, Object)}
+     * are not consulted. This method may be called concurrently on a shared instance.
      *
      * @param vars The values that will be used in the expansion
      * @return the expanded URI as a String
@@ -401,126 +762,638 @@ public class UriTemplate implements Serializable
      */
     public String expand(Map<String, Object> vars) throws VariableExpansionException
     {
-        this.values = vars;
-        return expand();
+        return expandPlan(Bindings.of(vars), false);
     }
 
 
     /**
-     * Applies variable substitution the URI Template and returns the expanded
-     * URI.
+     * Expand the URI template using values bound by slot, see {@link #slotOf(String)}. A
+     * <code>null</code> element, or a slot beyond the end of the array, leaves the variable
+     * undefined. Like {@link #expand(Map)}, the values only apply to this call, and no map is
+     * needed to pass them in.
      *
+     * @param slots the values, indexed by slot
      * @return the expanded URI as a String
-     * @throw VariableExpansionException
-     * @since 1.0
+     * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    public String expand() throws VariableExpansionException
+    public String expand(Object[] slots) throws VariableExpansionException
     {
-        String template = getTemplate();
-        for (Expression expression : expressions)
-        {
-            final String replacement = expressionReplacementString(expression, false);
-            template = template.replaceAll(expression.getReplacementPattern(), replacement);
-        }
-        return template;
+        return expandPlan(Bindings.of(slots), false);
     }
 
     /**
-     * @return
+     * Expands the URI template using values bound by slot and appends the result to the
+     * supplied {@link StringBuilder}. See {@link #expand(Object[])}.
+     *
+     * @param slots the values, indexed by slot
+     * @param out the builder the expanded URI is appended to
+     * @return the supplied builder
      * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    public String expandPartial() throws VariableExpansionException
+    public StringBuilder expandTo(Object[] slots, StringBuilder out) throws VariableExpansionException
     {
-        String template = getTemplate();
-        for (Expression expression : expressions)
-        {
-            final String replacement = expressionReplacementString(expression, true);
-            template = template.replaceAll(expression.getReplacementPattern(), replacement);
-        }
-        return template;
+        expandPlan(Bindings.of(slots), false, ExpansionSink.of(out));
+        return out;
     }
 
     /**
-     * Returns the original URI template expression.
+     * Expand the URI template using values supplied by a {@link VariableResolver}. The resolver is
+     * only consulted for the variables referenced by the template. Like {@link #expand(Map)}, the
+     * values only apply to this call.
      *
-     * @return the template string
-     * @since 1.1.4
+     * @param resolver the source of the values used in the expansion
+     * @return the expanded URI as a String
+     * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    public String getTemplate()
+    public String expand(VariableResolver resolver) throws VariableExpansionException
     {
-        return template;
+        return expandPlan(Bindings.of(resolver), false);
     }
 
     /**
-     * Returns the collection of name/value pairs contained in the instance.
+     * Partially expands the URI template using values supplied by a {@link VariableResolver}.
+     * Expressions whose variables are not defined by the resolver are preserved.
      *
-     * @return the name value pairs
-     * @since 1.0
+     * @param resolver the source of the values used in the expansion
+     * @return The partially expanded URI as a String
+     * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    public Map<String, Object> getValues()
+    public String expandPartial(VariableResolver resolver) throws VariableExpansionException
     {
-        return this.values;
+        return expandPlan(Bindings.of(resolver), true);
     }
 
     /**
-     * @param dateFormatString
-     * @return the date format used to render dates
-     * @since 1.0
+     * Expands the URI template using values supplied by a {@link VariableResolver} and appends the
+     * result to the supplied {@link StringBuilder}.
+     *
+     * @param resolver the source of the values used in the expansion
+     * @param out the builder the expanded URI is appended to
+     * @return the supplied builder
+     * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    public UriTemplate withDefaultDateFormat(String dateFormatString)
+    public StringBuilder expandTo(VariableResolver resolver, StringBuilder out) throws VariableExpansionException
     {
-        return this.withDefaultDateFormat(DateTimeFormat.forPattern(dateFormatString));
+        expandPlan(Bindings.of(resolver), false, ExpansionSink.of(out));
+        return out;
     }
 
-    private UriTemplate withDefaultDateFormat(DateTimeFormatter dateTimeFormatter)
+    /**
+     * <p>
+     * Expands the URI template once for every row of variables and passes each URI to the handler,
+     * in the order of the rows. A row is either a {@link Map}, a slot array as accepted by
+     * {@link #expand(Object[])}, or a {@link VariableResolver}; the types may be mixed.
+     * </p>
+     * <p>
+     * All rows are expanded into the same buffer, which is handed to the handler and cleared for
+     * the next row, so no String is created per URI unless the handler asks for one. Like
+     * {@link #expand(Map)}, the values only apply to the row they are in.
+     * </p>
+     *
+     * @param rows the rows of variables
+     * @param handler receives the expanded URIs
+     * @return the number of rows expanded
+     * @throws IOException if the handler raises one
+     * @throws IllegalArgumentException if a row is not of one of the supported types
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public int expandAll(Iterable<?> rows, ExpansionHandler handler) throws IOException, VariableExpansionException
     {
-        defaultDateTimeFormatter = dateTimeFormatter;
-        return this;
+        return expandAll(rows.iterator(), handler);
     }
 
     /**
-     * @param dateFormat
-     * @return the date format used to render dates
-     * @since 1.0
-     * @deprecated replaced by {@link #withDefaultDateFormat(String) withDefaultDateFormat}
+     * Expands the URI template once for every row of variables returned by the iterator. See
+     * {@link #expandAll(Iterable, ExpansionHandler)}.
+     *
+     * @param rows the rows of variables
+     * @param handler receives the expanded URIs
+     * @return the number of rows expanded
+     * @throws IOException if the handler raises one
+     * @throws IllegalArgumentException if a row is not of one of the supported types
+     * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    @Deprecated
-    public UriTemplate withDefaultDateFormat(DateFormat dateFormat)
+    public int expandAll(Iterator<?> rows, ExpansionHandler handler) throws IOException, VariableExpansionException
     {
-        if (!(dateFormat instanceof SimpleDateFormat))
+        final StringBuilder b = new StringBuilder(template.length() + 16 * plan.length);
+        final ExpansionSink sink = ExpansionSink.of(b);
+        int index = 0;
+        while (rows.hasNext())
         {
-            throw new IllegalArgumentException(
-            "The only supported subclass of java.text.DateFormat is java.text.SimpleDateFormat");
+            b.setLength(0);
+            sink.reset();
+            expandRow(rows.next(), sink);
+            handler.expanded(index++, b);
         }
-        defaultDateTimeFormatter = DateTimeFormat.forPattern(((SimpleDateFormat) dateFormat).toPattern());
-        return this;
+        return index;
     }
 
     /**
-     * Sets a value on the URI template expression variable.
+     * <p>
+     * Expands the URI template once for every row of variables, splitting the rows across the
+     * workers of the supplied {@link ForkJoinPool}, and returns the URIs in the order of the rows.
+     * Rows are of the same types as for {@link #expandAll(Iterable, ExpansionHandler)}. Every
+     * worker expands its share of the rows into its own buffer; the template itself is shared.
+     * </p>
+     * <p>
+     * The rows, and any lazy values in them, must be safe to read from several threads.
+     * </p>
      *
-     * @param variableName
-     * @param value
-     * @return
-     * @since 1.0
+     * @param rows the rows of variables
+     * @param pool the pool that runs the expansion
+     * @return the expanded URIs, in the order of the rows
+     * @throws IllegalArgumentException if a row is not of one of the supported types
+     * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    public UriTemplate set(String variableName, Object value)
+    public List<String> expandAll(Collection<?> rows, ForkJoinPool pool) throws VariableExpansionException
     {
-        values.put(variableName, value);
-        return this;
+        final List<?> list = rows instanceof RandomAccess ? (List<?>) rows : new ArrayList<Object>(rows);
+        final String[] results = new String[list.size()];
+        pool.invoke(new ExpansionTask(this, list, 0, list.size(),
+                                      ExpansionTask.threshold(list.size(), pool.getParallelism()), results, null));
+        return Arrays.asList(results);
     }
 
     /**
-     * Returns true if the {@link UriTemplate} contains the variableName.
+     * Expands the URI template once for every row of variables, splitting the rows across the
+     * workers of the supplied {@link ForkJoinPool}, and passes each URI to the handler as soon as it
+     * is ready. This does not keep the order of the rows: the handler is called from several
+     * threads at once, in no particular order, and must be thread-safe. Use the index to tell
+     * the rows apart. See {@link #expandAll(Collection, ForkJoinPool)}.
      *
-     * @param variableName
-     * @return
+     * @param rows the rows of variables
+     * @param pool the pool that runs the expansion
+     * @param handler receives the expanded URIs; called concurrently
+     * @throws IOException if the handler raises one
+     * @throws IllegalArgumentException if a row is not of one of the supported types
+     * @throws VariableExpansionException
+     * @since 2.1.9
      */
-    public boolean hasVariable(String variableName)
+    public void expandAll(Collection<?> rows, ForkJoinPool pool, ExpansionHandler handler)
+    throws IOException, VariableExpansionException
     {
-        return values.containsKey(variableName);
-    }
-
+        final List<?> list = rows instanceof RandomAccess ? (List<?>) rows : new ArrayList<Object>(rows);
+        try
+        {
+            pool.invoke(new ExpansionTask(this, list, 0, list.size(),
+                                          ExpansionTask.threshold(list.size(), pool.getParallelism()), null, handler));
+        }
+        catch (ExpansionSink.SinkIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Expands a single row of a batch into the sink.
+     *
+     * @param row a {@link Map}, a slot array or a {@link VariableResolver}
+     * @param out the sink the expanded URI is written to
+     * @throws VariableExpansionException
+     */
+    void expandRow(Object row, ExpansionSink out) throws VariableExpansionException
+    {
+        expandPlan(Bindings.ofRow(row), false, out);
+    }
+
+    /**
+     * Applies variable substitution the URI Template and returns the expanded
+     * URI.
+     *
+     * @return the expanded URI as a String
+     * @throw VariableExpansionException
+     * @since 1.0
+     */
+    public String expand() throws VariableExpansionException
+    {
+        return expandPlan(Bindings.of(values), false);
+    }
+
+    /**
+     * @return
+     * @throws VariableExpansionException
+     */
+    public String expandPartial() throws VariableExpansionException
+    {
+        return expandPlan(Bindings.of(values), true);
+    }
+
+    /**
+     * Partially expands the URI template using the supplied values. Expressions without
+     * replacements get preserved and still exist in the expanded URI string. Like
+     * {@link #expand(Map)}, the values only apply to this call.
+     *
+     * @param vars The values that will be used in the expansion
+     * @return The partially expanded URI as a String
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public String expandPartial(Map<String, Object> vars) throws VariableExpansionException
+    {
+        return expandPlan(Bindings.of(vars), true);
+    }
+
+    /**
+     * Expands the URI template using the values added via {@link #set(String, Object)} and appends
+     * the result to the supplied {@link StringBuilder}. Literals and encoded values are written
+     * straight into the builder as they are produced. If a {@link VariableExpansionException} is
+     * raised, the builder may contain part of the expansion.
+     *
+     * @param out the builder the expanded URI is appended to
+     * @return the supplied builder
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public StringBuilder expandTo(StringBuilder out) throws VariableExpansionException
+    {
+        return expandTo(values, out);
+    }
+
+    /**
+     * Expands the URI template using the supplied values and appends the result to the supplied
+     * {@link StringBuilder}. Like {@link #expand(Map)}, the values only apply to this call.
+     *
+     * @param vars The values that will be used in the expansion
+     * @param out the builder the expanded URI is appended to
+     * @return the supplied builder
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public StringBuilder expandTo(Map<String, Object> vars, StringBuilder out) throws VariableExpansionException
+    {
+        expandPlan(Bindings.of(vars), false, ExpansionSink.of(out));
+        return out;
+    }
+
+    /**
+     * Expands the URI template using the values added via {@link #set(String, Object)} and appends
+     * the result to the supplied {@link Appendable}, such as a {@link java.io.Writer}.
+     *
+     * @param out the target the expanded URI is appended to
+     * @return the supplied target
+     * @throws IOException if the target raises one
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public Appendable expandTo(Appendable out) throws IOException, VariableExpansionException
+    {
+        return expandTo(values, out);
+    }
+
+    /**
+     * Expands the URI template using the supplied values and appends the result to the supplied
+     * {@link Appendable}. Like {@link #expand(Map)}, the values only apply to this call.
+     *
+     * @param vars The values that will be used in the expansion
+     * @param out the target the expanded URI is appended to
+     * @return the supplied target
+     * @throws IOException if the target raises one
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public Appendable expandTo(Map<String, Object> vars, Appendable out) throws IOException, VariableExpansionException
+    {
+        try
+        {
+            expandPlan(Bindings.of(vars), false, ExpansionSink.of(out));
+        }
+        catch (ExpansionSink.SinkIOException e)
+        {
+            throw e.getCause();
+        }
+        return out;
+    }
+
+    /**
+     * Expands the URI template using the supplied values and puts the result into the supplied
+     * {@link ByteBuffer}, heap or direct, starting at its current position. Expanded values are
+     * percent-encoded US-ASCII and are put one byte per character; literal text from the template
+     * that is not US-ASCII is written as UTF-8. The result is the same as the UTF-8 bytes of
+     * {@link #expand(Map)}.
+     * <p>
+     * Use {@link #requiredCapacity(Map)} to size the buffer. If the buffer runs out of space, a
+     * {@link BufferOverflowException} is raised and the buffer holds the bytes written so far.
+     * </p>
+     *
+     * @param vars The values that will be used in the expansion
+     * @param out the buffer the expanded URI is put into
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the buffer does not have enough space remaining
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public int expandTo(Map<String, Object> vars, ByteBuffer out) throws VariableExpansionException
+    {
+        final ExpansionSink sink = ExpansionSink.of(out);
+        expandPlan(Bindings.of(vars), false, sink);
+        return sink.byteCount();
+    }
+
+    /**
+     * Expands the URI template using the supplied values and writes the result to the supplied
+     * {@link OutputStream}, using the same encoding as {@link #expandTo(Map, ByteBuffer)}. The bytes
+     * are written in chunks; the stream is neither flushed nor closed.
+     *
+     * @param vars The values that will be used in the expansion
+     * @param out the stream the expanded URI is written to
+     * @return the number of bytes written
+     * @throws IOException if the stream raises one
+     * @throws VariableExpansionException
+     * @since 2.1.9
+     */
+    public int expandTo(Map<String, Object> vars, OutputStream out) throws IOException, VariableExpansionException
+    {
+        final ExpansionSink sink = ExpansionSink.of(out);
+        try
+        {
+            expandPlan(Bindings.of(vars), false, sink);
+            sink.finish();
+        }
+        catch (ExpansionSink.SinkIOException e)
+        {
+            throw e.getCause();
+        }
+        return sink.byteCount();
+    }
+
+    /**
+     * Returns the number of bytes that {@link #expandTo(Map, ByteBuffer)} and
+     * {@link #expandTo(Map, OutputStream)} write for the supplied values. The template is
+     * expanded without keeping the output.
+     * <p>
+     * Since the values are expanded twice, once to count and once to write, they must give the
+     * same result both times. An {@link Iterator} or a <code>java.util.stream.Stream</code> would be
+     * used up by the count, so they are rejected; pass a {@link Collection} instead. Lazy values,
+     * a {@link java.util.concurrent.Callable} or a <code>java.util.function.Supplier</code>, are
+     * evaluated again by the write.
+     * </p>
+     *
+     * @param vars The values that will be used in the expansion
+     * @return the number of bytes the expanded URI takes
+     * @throws VariableExpansionException if a variable of the template has an {@link Iterator} or
+     *                                    a <code>Stream</code> value, or the values cannot be expanded
+     * @since 2.1.9
+     */
+    public int requiredCapacity(Map<String, Object> vars) throws VariableExpansionException
+    {
+        for (String name : variables)
+        {
+            final Object value = vars.get(name);
+            if (value instanceof Iterator
+                || STREAM_ITERATOR != null && STREAM_ITERATOR.getDeclaringClass().isInstance(value))
+            {
+                throw new VariableExpansionException("The value of " + name + " can only be read once and "
+                                                     + "would be used up by counting its bytes");
+            }
+        }
+        final ExpansionSink sink = ExpansionSink.counting();
+        expandPlan(Bindings.of(vars), false, sink);
+        return sink.byteCount();
+    }
+
+    /**
+     * @param vars the values used for this expansion
+     * @param partial if true, expressions without values are preserved in the output
+     * @return the expanded URI as a String
+     * @throws VariableExpansionException
+     */
+    private String expandPlan(Bindings vars, boolean partial) throws VariableExpansionException
+    {
+        final StringBuilder b = new StringBuilder(template.length() + 16 * plan.length);
+        expandPlan(vars, partial, ExpansionSink.of(b));
+        return b.toString();
+    }
+
+    /**
+     * Walks the expansion plan once, writing each literal and each expanded expression
+     * to the sink. Replacement values are written verbatim, so characters such as
+     * <code>$</code> or <code>\</code>, or text that looks like another expression, are never
+     * reinterpreted.
+     *
+     * @param vars the values used for this expansion
+     * @param partial if true, expressions without values are preserved in the output
+     * @param out the sink the expanded URI is written to
+     * @throws VariableExpansionException
+     */
+    private void expandPlan(Bindings vars, boolean partial, ExpansionSink out)
+    throws VariableExpansionException
+    {
+        out.limit(partial ? Integer.MAX_VALUE : maximumLength);
+        try
+        {
+            for (int i = 0; i < plan.length; i++)
+            {
+                final UriTemplateComponent component = plan[i];
+                if (component instanceof Expression)
+                {
+                    if (partial)
+                    {
+                        out.append(partialReplacementString((Expression) component, emitterPlan[i], vars));
+                    }
+                    else if (levelOneFastPath && emitterPlan[i].length == 1 && emitterPlan[i][0].levelOne)
+                    {
+                        expandLevelOne(emitterPlan[i][0], vars, out);
+                    }
+                    else
+                    {
+                        expandExpression(emitterPlan[i], vars, out);
+                    }
+                }
+                else
+                {
+                    out.append(component.getValue());
+                }
+            }
+        }
+        catch (ExpansionSink.LimitExceededException e)
+        {
+            throw new UriTooLongException(null, maximumLength);
+        }
+    }
+
+    /**
+     * Returns the original URI template expression.
+     *
+     * @return the template string
+     * @since 1.1.4
+     */
+    public String getTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * Returns the collection of name/value pairs contained in the instance.
+     *
+     * @return the name value pairs
+     * @since 1.0
+     */
+    public Map<String, Object> getValues()
+    {
+        return this.values;
+    }
+
+    /**
+     * @param dateFormatString
+     * @return the date format used to render dates
+     * @since 1.0
+     */
+    public UriTemplate withDefaultDateFormat(String dateFormatString)
+    {
+        return this.withDefaultDateFormat(DateTimeFormat.forPattern(dateFormatString));
+    }
+
+    /**
+     * Returns a copy of this template with the supplied limits, and with the values and the date
+     * format of this template.
+     *
+     * @param maximumListSize
+     * @param maximumLength
+     * @return
+     */
+    private UriTemplate configured(int maximumListSize, int maximumLength)
+    {
+        final UriTemplate copy = new UriTemplate(this, maximumListSize, maximumLength);
+        copy.values.putAll(values);
+        copy.defaultDateTimeFormatter = defaultDateTimeFormatter;
+        copy.defaultDateFormat = defaultDateFormat;
+        return copy;
+    }
+
+    private UriTemplate withDefaultDateFormat(DateTimeFormatter dateTimeFormatter)
+    {
+        defaultDateTimeFormatter = dateTimeFormatter;
+        return this;
+    }
+
+    /**
+     * Limits the number of elements a list value may have. A variable whose {@link Collection},
+     * array, {@link Iterable}, {@link Iterator} or stream value has more elements fails the
+     * expansion with a {@link VariableExpansionException}. Lazy values are pulled one element at a
+     * time, so the limit also stops the expansion of an unbounded sequence. There is no limit by
+     * default.
+     * <p>
+     * Like {@link #withMaximumLength(int)}, this leaves the template as it is and returns a copy
+     * with the limit.
+     * </p>
+     *
+     * @param maximumListSize the largest number of elements, at least 0
+     * @return a copy of this template with the limit
+     * @since 2.1.9
+     */
+    public UriTemplate withMaximumListSize(int maximumListSize)
+    {
+        if (maximumListSize < 0)
+        {
+            throw new IllegalArgumentException("The maximum list size must not be negative");
+        }
+        return configured(maximumListSize, maximumLength);
+    }
+
+    /**
+     * Returns the largest number of elements a list value may have.
+     *
+     * @return the maximum list size, {@link Integer#MAX_VALUE} when there is no limit
+     * @since 2.1.9
+     */
+    public int getMaximumListSize()
+    {
+        return maximumListSize;
+    }
+
+    /**
+     * <p>
+     * Limits the number of characters of the URIs expanded by this template, for example to stay
+     * within the URL length accepted by a proxy or CDN. The expansion keeps track of the length as
+     * it goes and stops as soon as the limit would be exceeded, raising a
+     * {@link UriTooLongException} that names the variable being expanded. The remaining variables
+     * are never evaluated or encoded.
+     * </p>
+     * <p>
+     * The limit applies to every expansion of this template, including {@link #expandTo(Map, Appendable)},
+     * the batch expansions and the byte oriented variants, but not to partial expansion. There
+     * is no limit by default.
+     * </p>
+     * <p>
+     * This template is left as it is: the limit is set on a copy that shares its parsed form and
+     * has its values, so a template that other threads are expanding is never changed under them.
+     * </p>
+     *
+     * @param maximumLength the largest number of characters, at least 0
+     * @return a copy of this template with the limit
+     * @since 2.1.9
+     */
+    public UriTemplate withMaximumLength(int maximumLength)
+    {
+        if (maximumLength < 0)
+        {
+            throw new IllegalArgumentException("The maximum length must not be negative");
+        }
+        return configured(maximumListSize, maximumLength);
+    }
+
+    /**
+     * Returns the largest number of characters an expanded URI may have.
+     *
+     * @return the maximum length, {@link Integer#MAX_VALUE} when there is no limit
+     * @since 2.1.9
+     */
+    public int getMaximumLength()
+    {
+        return maximumLength;
+    }
+
+    /**
+     * @param dateFormat
+     * @return the date format used to render dates
+     * @since 1.0
+     * @deprecated replaced by {@link #withDefaultDateFormat(String) withDefaultDateFormat}
+     */
+    @Deprecated
+    public UriTemplate withDefaultDateFormat(DateFormat dateFormat)
+    {
+        if (!(dateFormat instanceof SimpleDateFormat))
+        {
+            throw new IllegalArgumentException(
+            "The only supported subclass of java.text.DateFormat is java.text.SimpleDateFormat");
+        }
+        defaultDateTimeFormatter = DateTimeFormat.forPattern(((SimpleDateFormat) dateFormat).toPattern());
+        return this;
+    }
+
+    /**
+     * Sets a value on the URI template expression variable.
+     *
+     * @param variableName
+     * @param value
+     * @return
+     * @since 1.0
+     */
+    public UriTemplate set(String variableName, Object value)
+    {
+        values.put(variableName, value);
+        return this;
+    }
+
+    /**
+     * Returns true if the {@link UriTemplate} contains the variableName.
+     *
+     * @param variableName
+     * @return
+     */
+    public boolean hasVariable(String variableName)
+    {
+        return values.containsKey(variableName);
+    }
+
     /**
      * FIXME Comment this
      *
@@ -551,175 +1424,355 @@ public class UriTemplate implements Serializable
      * Adds the name/value pairs in the supplied {@link Map} to the collection
      * of values within this URI template instance.
      *
-     * @param values
-     * @return
-     * @since 1.0
+     * @param values
+     * @return
+     * @since 1.0
+     */
+    public UriTemplate set(Map<String, Object> values)
+    {
+        if (values != null && !values.isEmpty())
+        {
+            this.values.putAll(values);
+        }
+        return this;
+    }
+
+    /**
+     * @param op
+     * @return
+     */
+    public static boolean containsOperator(String op)
+    {
+        return OPERATOR_BITSET.get(op.toCharArray()[0]);
+    }
+
+
+    /**
+     * Expands a single expression into the sink. Values are written as they are produced: the
+     * operator prefix is written before the first defined value and the separator is only written
+     * between values, so nothing is written when none of the variables are defined.
+     *
+     * @param emitters the compiled variables of the expression
+     * @param vars
+     * @param out
+     * @throws VariableExpansionException
+     */
+    private void expandExpression(VarEmitter[] emitters, Bindings vars, ExpansionSink out)
+    throws VariableExpansionException
+    {
+        boolean first = true;
+        boolean separatorPending = false;
+        for (VarEmitter var : emitters)
+        {
+            final Object value = expandableValue(var, vars.get(var.slot, var.name));
+            if (value == null)
+            {
+                continue;
+            }
+            try
+            {
+                if (first)
+                {
+                    out.append(var.expressionPrefix);
+                    first = false;
+                }
+                else if (separatorPending)
+                {
+                    out.append(var.expressionSeparator);
+                }
+                final int mark = out.length();
+                expandValue(var, value, out);
+                separatorPending = out.length() != mark;
+            }
+            catch (ExpansionSink.LimitExceededException e)
+            {
+                throw new UriTooLongException(var.name, maximumLength);
+            }
+        }
+    }
+
+    /**
+     * Expands a Level 1 expression, <code>{var}</code> or <code>{+var}</code>, into the sink. These
+     * write no prefix or separators, so a string value is encoded straight into the sink. Other
+     * values take the same path as in {@link #expandExpression(VarEmitter[], Bindings, ExpansionSink)}.
+     *
+     * @param var the only variable of the expression
+     * @param vars
+     * @param out
+     * @throws VariableExpansionException
+     */
+    private void expandLevelOne(VarEmitter var, Bindings vars, ExpansionSink out)
+    throws VariableExpansionException
+    {
+        final Object bound = vars.get(var.slot, var.name);
+        try
+        {
+            if (bound instanceof String)
+            {
+                var.appendString((String) bound, null, out);
+            }
+            else
+            {
+                final Object value = expandableValue(var, bound);
+                if (value != null)
+                {
+                    expandValue(var, value, out);
+                }
+            }
+        }
+        catch (ExpansionSink.LimitExceededException e)
+        {
+            throw new UriTooLongException(var.name, maximumLength);
+        }
+    }
+
+    /**
+     * @param expression
+     * @param emitters
+     * @param vars
+     * @return
+     * @throws VariableExpansionException
+     */
+    private String partialReplacementString(Expression expression, VarEmitter[] emitters, Bindings vars)
+    throws VariableExpansionException
+    {
+        final String result = joinParts(expression, expandVariables(emitters, vars));
+        return result != null ? result : "";
+    }
+
+    /**
+     * Expands each variable of the expression to its own string for partial expansion. Variables
+     * without a value are represented by a <code>null</code> entry.
+     *
+     * @param emitters
+     * @param vars
+     * @return
+     * @throws VariableExpansionException
+     */
+    private List<String> expandVariables(VarEmitter[] emitters, Bindings vars)
+    throws VariableExpansionException
+    {
+        final List<String> replacements = new ArrayList<String>();
+        for (VarEmitter var : emitters)
+        {
+            final Object bound = vars.get(var.slot, var.name);
+            if (bound != Bindings.UNBOUND)
+            {
+                final Object value = normalizeValue(var, bound);
+                if (hasExpansion(value))
+                {
+                    final StringBuilder b = new StringBuilder();
+                    expandValue(var, value, ExpansionSink.of(b));
+                    replacements.add(b.toString());
+                }
+            }
+            else
+            {
+                replacements.add(null);
+            }
+        }
+        return replacements;
+    }
+
+    /**
+     * Normalizes the value bound to a variable, see {@link #normalizeValue(VarEmitter, Object)}.
+     *
+     * @param var
+     * @param bound the value, or {@link Bindings#UNBOUND}
+     * @return the value to expand, or <code>null</code> if the variable is not bound or its value
+     *         expands to nothing
+     * @throws VariableExpansionException
      */
-    public UriTemplate set(Map<String, Object> values)
+    private Object expandableValue(VarEmitter var, Object bound) throws VariableExpansionException
     {
-        if (values != null && !values.isEmpty())
+        if (bound == Bindings.UNBOUND)
         {
-            this.values.putAll(values);
+            return null;
         }
-        return this;
+        final Object value = normalizeValue(var, bound);
+        return hasExpansion(value) ? value : null;
     }
 
     /**
-     * @param op
-     * @return
+     * Converts arrays to their list or string equivalent, iterables and streams to an
+     * {@link Iterator} over their elements, and validates that a composite value is not used with
+     * a prefix modifier.
+     *
+     * @param varSpec
+     * @param value
+     * @return the value to expand
+     * @throws VariableExpansionException
      */
-    public static boolean containsOperator(String op)
+    private Object normalizeValue(VarEmitter var, Object value) throws VariableExpansionException
     {
-        return OPERATOR_BITSET.get(op.toCharArray()[0]);
+        if (value != null && value.getClass().isArray())
+        {
+            if (value instanceof char[][])
+            {
+                final char[][] chars = (char[][]) value;
+                final List<String> strings = new ArrayList<String>();
+                for (char[] c : chars)
+                {
+                    strings.add(String.valueOf(c));
+                }
+                value = strings;
+            }
+            else if (value instanceof char[])
+            {
+                value = String.valueOf((char[]) value);
+            }
+            else if (!value.getClass().getComponentType().isPrimitive())
+            {
+                value = arrayToList(value);
+            }
+        }
+        else if (value instanceof Iterable && !(value instanceof Collection))
+        {
+            value = ((Iterable<?>) value).iterator();
+        }
+        else if (STREAM_ITERATOR != null && STREAM_ITERATOR.getDeclaringClass().isInstance(value))
+        {
+            value = streamIterator(var, value);
+        }
+        // We don't handle prefix modifiers on composite values.
+        if (var.maxLength >= 0 && isExplodable(value))
+        {
+            throw new VariableExpansionException(
+            "Prefix modifiers are not applicable to variables that have composite values.");
+        }
+        return value;
     }
 
-
     /**
-     * @param expression
-     * @param partial
+     * Returns false if the value does not contribute anything to the expansion: it is
+     * <code>null</code>, an empty {@link Collection}, an empty {@link Map}, an empty array or an
+     * exhausted {@link Iterator}. Checking an iterator does not consume its first element.
+     *
+     * @param value
      * @return
-     * @throws VariableExpansionException
      */
-    private String expressionReplacementString(Expression expression, boolean partial) throws VariableExpansionException
+    private boolean hasExpansion(Object value)
     {
-        final Operator operator = expression.getOperator();
-        final List<String> replacements = expandVariables(expression, partial);
-        String result = partial ? joinParts(expression, replacements) : joinParts(operator.getSeparator(), replacements);
-        if (result != null)
+        if (value == null)
         {
-            if (!partial && operator != Operator.RESERVED)
-            {
-                result = operator.getPrefix() + result;
-            }
+            return false;
         }
-        else
+        if (value instanceof Collection)
+        {
+            return !((Collection<?>) value).isEmpty();
+        }
+        if (value instanceof Map)
+        {
+            return !((Map<?, ?>) value).isEmpty();
+        }
+        if (value instanceof Iterator)
         {
-            result = "";
+            return ((Iterator<?>) value).hasNext();
         }
-        return result;
+        if (value.getClass().isArray())
+        {
+            return Array.getLength(value) > 0;
+        }
+        return true;
     }
 
     /**
-     * @param expression
-     * @param partial
-     * @return
+     * Expands a normalized, non-null value into the sink.
+     *
+     * @param operator
+     * @param varSpec
+     * @param value
+     * @param out
      * @throws VariableExpansionException
      */
     @SuppressWarnings({"rawtypes", "unchecked"})
-    private List<String> expandVariables(Expression expression, boolean partial) throws VariableExpansionException
+    private void expandValue(VarEmitter var, Object value, ExpansionSink out)
+    throws VariableExpansionException
     {
-        final List<String> replacements = new ArrayList<String>();
-        final Operator operator = expression.getOperator();
-        for (VarSpec varSpec : expression.getVarSpecs())
+        /*
+         * Integral numbers, UUIDs, booleans and enums are written directly
+         */
+        if (var.maxLength < 0 && expandPlainValue(var, value, out))
+        {
+            return;
+        }
+        /*
+         * The variable value contains a list of values
+         */
+        if (value instanceof Collection)
+        {
+            expandList(var, ((Collection) value).iterator(), out);
+        }
+        /*
+         * The variable value is an Iterable, Iterator or stream, pulled one element at a time
+         */
+        else if (value instanceof Iterator)
+        {
+            expandList(var, (Iterator) value, out);
+        }
+        /*
+         * The variable value is an array of primitives, expanded like a list without boxing
+         */
+        else if (value.getClass().isArray())
         {
-            if (values.containsKey(varSpec.getVariableName()))
+            expandPrimitiveArray(var, value, out);
+        }
+        /*
+         * The variable value contains a list of key-value pairs
+         */
+        else if (value instanceof Map)
+        {
+            expandMap(var, (Map) value, out);
+        }
+        /*
+         * Format the date if we have a java.util.Date
+         */
+        else if (value instanceof Date)
+        {
+            final String formatted = defaultDateTimeFormatter.print(new DateTime((Date) value));
+            var.appendString(formatted, var.valuePrefix, out);
+        }
+        /*
+         * The value is a complex type, so we need to pass it to VarExploder to decompose the
+         * object to simple key/value pairs. If it has none, we fall back to toString().
+         */
+        else if (!isSimpleType(value))
+        {
+            final VarExploder exploder = VarExploderFactory.getExploder(value, var.varSpec);
+            if (var.explode)
             {
-                Object value = values.get(varSpec.getVariableName());
-                // The expanded value
-                String expanded = null;
-
-                if (value != null)
-                {
-                    if (value.getClass().isArray())
-                    {
-                        if (value instanceof char[][])
-                        {
-                            final char[][] chars = (char[][]) value;
-                            final List<String> strings = new ArrayList<String>();
-                            for (char[] c : chars)
-                            {
-                                strings.add(String.valueOf(c));
-                            }
-                            value = strings;
-                        }
-                        else if (value instanceof char[])
-                        {
-                            value = String.valueOf((char[]) value);
-                        }
-                        else
-                        {
-                            value = arrayToList(value);
-                        }
-
-                    }
-                }
-                // Check to see if the value is explodable, meaning that we need to pass it to VarExploder to
-                // decompose the object to simple key/value pairs. We don't handle prefix modifiers on composite values.
-                final boolean explodable = isExplodable(value);
-                if (explodable && varSpec.getModifier() == Modifier.PREFIX)
-                {
-                    throw new VariableExpansionException(
-                    "Prefix modifiers are not applicable to variables that have composite values.");
-                }
-                // If it's explodable, lookup the appropriate exploder
-                if (explodable)
-                {
-                    final VarExploder exploder;
-                    if (value instanceof VarExploder)
-                    {
-                        exploder = (VarExploder) value;
-                    }
-                    else
-                    {
-                        exploder = VarExploderFactory.getExploder(value, varSpec);
-                    }
-                    if (varSpec.getModifier() == Modifier.EXPLODE)
-                    {
-                        expanded = expandMap(operator, varSpec, exploder.getNameValuePairs());
-                    }
-                    else if (varSpec.getModifier() != Modifier.EXPLODE)
-                    {
-                        expanded = expandCollection(operator, varSpec, exploder.getValues());
-                    }
-                }
-
-                /*
-                 * Format the date if we have a java.util.Date
-                 */
-                if (value instanceof Date)
-                {
-                    value = defaultDateTimeFormatter.print(new DateTime((Date) value));
-                }
-                /*
-                 * The variable value contains a list of values
-                 */
-                if (value instanceof Collection)
-                {
-                    expanded = this.expandCollection(operator, varSpec, (Collection) value);
-                }
-                /*
-                 * The variable value contains a list of key-value pairs
-                 */
-                else if (value instanceof Map)
-                {
-                    expanded = expandMap(operator, varSpec, (Map) value);
-                }
-                /*
-                 * The variable value is null or has o value.
-                 */
-                else if (value == null)
-                {
-                    expanded = null;
-                }
-                /*
-                 * the value hasn't been expanded yet and we should call toString() on it.
-                 */
-                else if (expanded == null)
-                {
-                    expanded = this.expandStringValue(operator, varSpec, value.toString(), VarSpec.VarFormat.SINGLE);
-                }
-                if (expanded != null)
+                final Map<String, Object> pairs = exploder.getNameValuePairs();
+                if (hasExpansion(pairs))
                 {
-                    replacements.add(expanded);
+                    expandMap(var, pairs, out);
+                    return;
                 }
-
             }
-            else if (partial)
+            else
             {
-                replacements.add(null);
+                final Collection<Object> values = exploder.getValues();
+                if (hasExpansion(values))
+                {
+                    expandList(var, values.iterator(), out);
+                    return;
+                }
             }
+            var.appendString(value.toString(), var.valuePrefix, out);
+        }
+        /*
+         * A CharSequence is encoded as it is, without copying it to a String first.
+         */
+        else if (value instanceof CharSequence)
+        {
+            var.appendString((CharSequence) value, var.valuePrefix, out);
+        }
+        /*
+         * the value is a simple type and we should call toString() on it.
+         */
+        else
+        {
+            var.appendString(value.toString(), var.valuePrefix, out);
         }
-        return replacements;
     }
 
     /**
@@ -732,7 +1785,8 @@ public class UriTemplate implements Serializable
         {
             return false;
         }
-        if (value instanceof Collection || value instanceof Map || value.getClass().isArray())
+        if (value instanceof Collection || value instanceof Map || value instanceof Iterator
+            || value.getClass().isArray())
         {
             return true;
         }
@@ -753,6 +1807,7 @@ public class UriTemplate implements Serializable
      * <li>an instance of {@link Number} <li>
      * <li>an instance of {@link Date} <li>
      * <li>an instance of {@link Boolean}</li>
+     * <li>an instance of {@link Character}</li>
      * <li>an instance of {@link UUID}</li>
      * <li>an instance of {@link Class}</li>
      * </ul>
@@ -770,6 +1825,7 @@ public class UriTemplate implements Serializable
         || value instanceof CharSequence
         || value instanceof Date
         || value instanceof Boolean
+        || value instanceof Character
         || value instanceof UUID
         )
         {
@@ -779,61 +1835,180 @@ public class UriTemplate implements Serializable
     }
 
     /**
-     * @param operator
-     * @param varSpec
-     * @param variable
-     * @return
+     * Expands the elements of a non-empty list into the sink. Each element is encoded into the
+     * sink as soon as it is pulled from the iterator.
+     *
+     * @param var
+     * @param elements
+     * @param out
+     * @throws VariableExpansionException
      */
-    private String expandCollection(Operator operator, VarSpec varSpec, Collection<?> variable)
+    private void expandList(VarEmitter var, Iterator<?> elements, ExpansionSink out)
     throws VariableExpansionException
     {
-
-        if (variable == null || variable.isEmpty())
+        if (var.compositePrefix != null)
         {
-            return null;
+            out.append(var.compositePrefix);
         }
+        boolean separatorPending = false;
+        int count = 0;
+        while (elements.hasNext())
+        {
+            checkListSize(var, ++count);
+            final CharSequence value = collectionItemValue(elements.next());
+            if (separatorPending)
+            {
+                out.append(var.elementSeparator);
+            }
+            final int mark = out.length();
+            var.appendString(value, var.elementPrefix, out);
+            separatorPending = out.length() != mark;
+        }
+    }
 
-        final List<String> stringValues = new ArrayList<String>();
-        final Iterator<?> i = variable.iterator();
-        String separator = operator.getSeparator();
-        if (varSpec.getModifier() != Modifier.EXPLODE)
+    /**
+     * Expands a non-empty array of primitives into the sink, exactly like a list of the boxed
+     * values. The elements are read from the array and written directly; their string forms
+     * never need to be percent-encoded.
+     *
+     * @param var
+     * @param array an <code>int[]</code>, <code>long[]</code>, <code>short[]</code>,
+     *              <code>byte[]</code>, <code>double[]</code>, <code>float[]</code> or
+     *              <code>boolean[]</code>
+     * @param out
+     */
+    private void expandPrimitiveArray(VarEmitter var, Object array, ExpansionSink out)
+    throws VariableExpansionException
+    {
+        final int length = Array.getLength(array);
+        checkListSize(var, length);
+        if (var.compositePrefix != null)
         {
-            separator = operator.getListSeparator();
+            out.append(var.compositePrefix);
         }
-        while (i.hasNext())
+        for (int i = 0; i < length; i++)
         {
-            final Object obj = i.next();
-            checkValue(obj);
-            String value;
-            if(checkValue(obj))
+            if (i > 0)
+            {
+                out.append(var.elementSeparator);
+            }
+            if (var.elementPrefix != null)
+            {
+                out.append(var.elementPrefix);
+            }
+            if (array instanceof long[])
+            {
+                out.appendDecimal(((long[]) array)[i]);
+            }
+            else if (array instanceof int[])
+            {
+                out.appendDecimal(((int[]) array)[i]);
+            }
+            else if (array instanceof short[])
+            {
+                out.appendDecimal(((short[]) array)[i]);
+            }
+            else if (array instanceof byte[])
+            {
+                out.appendDecimal(((byte[]) array)[i]);
+            }
+            else if (array instanceof double[])
+            {
+                out.append(Double.toString(((double[]) array)[i]));
+            }
+            else if (array instanceof float[])
             {
-                value = joinParts(",", obj);
+                out.append(Float.toString(((float[]) array)[i]));
             }
             else
             {
-                if(isSimpleType(obj))
-                {
-                    value = obj.toString();
-                }
-                else
-                {
-                    throw new VariableExpansionException("Collections or other complex types are not supported in collections.");
-                }
+                out.append(((boolean[]) array)[i] ? "true" : "false");
             }
+        }
+    }
+
+    /**
+     * Fails the expansion if a list value has more than {@link #maximumListSize} elements.
+     *
+     * @param var
+     * @param size the number of elements seen so far
+     * @throws VariableExpansionException
+     */
+    private void checkListSize(VarEmitter var, int size) throws VariableExpansionException
+    {
+        if (size > maximumListSize)
+        {
+            throw new VariableExpansionException("The value of the variable " + var.name
+                                                 + " has more than " + maximumListSize + " elements");
+        }
+    }
 
-            stringValues.add(expandStringValue(operator, varSpec, value, VarSpec.VarFormat.ARRAY));
+    private static Method streamIteratorMethod()
+    {
+        try
+        {
+            return Class.forName("java.util.stream.BaseStream").getMethod("iterator");
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
         }
+    }
 
-        if (varSpec.getModifier() != Modifier.EXPLODE && operator.useVarNameWhenExploded())
+    /**
+     * Returns the iterator of a <code>java.util.stream.BaseStream</code>. Taking the iterator is a
+     * terminal operation, the stream is not closed.
+     *
+     * @param var
+     * @param stream
+     * @return
+     * @throws VariableExpansionException
+     */
+    private static Iterator<?> streamIterator(VarEmitter var, Object stream) throws VariableExpansionException
+    {
+        try
         {
-            final String parts = joinParts(separator, stringValues);
-            if (operator == Operator.QUERY && parts == null)
-            {
-                return varSpec.getVariableName() + "=";
-            }
-            return varSpec.getVariableName() + "=" + parts;
+            return (Iterator<?>) STREAM_ITERATOR.invoke(stream);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new VariableExpansionException("The value of the variable " + var.name
+                                                 + " could not be iterated", e.getCause());
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new VariableExpansionException("The value of the variable " + var.name
+                                                 + " could not be iterated", e);
+        }
+    }
+
+    /**
+     * Returns the string form of a value found in a collection or map. Nested lists and arrays
+     * are joined with a comma, character sequences are used as they are.
+     *
+     * @param obj
+     * @return
+     * @throws VariableExpansionException
+     */
+    private CharSequence collectionItemValue(Object obj) throws VariableExpansionException
+    {
+        if (checkValue(obj))
+        {
+            return joinParts(",", obj);
+        }
+        if (obj instanceof CharSequence)
+        {
+            return (CharSequence) obj;
         }
-        return joinParts(separator, stringValues);
+        if (isSimpleType(obj))
+        {
+            return obj.toString();
+        }
+        throw new VariableExpansionException("Collections or other complex types are not supported in collections.");
     }
 
     /**
@@ -856,137 +2031,85 @@ public class UriTemplate implements Serializable
     }
 
     /**
+     * Expands a non-empty map into the sink.
+     *
      * @param operator
      * @param varSpec
      * @param variable
-     * @return
+     * @param out
      */
-    private String expandMap(Operator operator, VarSpec varSpec, Map<String, Object> variable)
+    private void expandMap(VarEmitter var, Map<String, Object> variable, ExpansionSink out)
     throws VariableExpansionException
     {
-        if (variable == null || variable.isEmpty())
+        if (var.compositePrefix != null)
         {
-            return null;
-        }
-
-        List<String> stringValues = new ArrayList<String>();
-        String pairJoiner = "=";
-        if (varSpec.getModifier() != Modifier.EXPLODE)
-        {
-            pairJoiner = ",";
-        }
-        String joiner = operator.getSeparator();
-        if (varSpec.getModifier() != Modifier.EXPLODE)
-        {
-            joiner = operator.getListSeparator();
+            out.append(var.compositePrefix);
         }
+        boolean first = true;
         for (Entry<String, Object> entry : variable.entrySet())
         {
-
-            String key = entry.getKey();
-            String value;
-            if(checkValue(entry.getValue()))
-            {
-                value = joinParts(",", entry.getValue());
-            }
-            else
-            {
-                if(isSimpleType(entry.getValue()))
-                {
-                    value = entry.getValue().toString();
-                }
-                else
-                {
-                    throw new VariableExpansionException("Collections or other complex types are not supported in collections.");
-                }
-            }
-
-            String pair = expandStringValue(operator, varSpec, key, VarSpec.VarFormat.PAIRS) + pairJoiner
-            + expandStringValue(operator, varSpec, value, VarSpec.VarFormat.PAIRS);
-
-            stringValues.add(pair);
-        }
-
-        if (varSpec.getModifier() != Modifier.EXPLODE
-        && (operator == Operator.MATRIX || operator == Operator.QUERY || operator == Operator.CONTINUATION))
-        {
-            String joinedValues = joinParts(joiner, stringValues);
-            if (operator == Operator.QUERY && joinedValues == null)
+            final CharSequence value = collectionItemValue(entry.getValue());
+            if (!first)
             {
-                return varSpec.getVariableName() + "=";
+                out.append(var.elementSeparator);
             }
-            return varSpec.getVariableName() + "=" + joinedValues;
+            var.appendString(entry.getKey(), null, out);
+            out.append(var.pairSeparator);
+            var.appendString(value, null, out);
+            first = false;
         }
-
-        return joinParts(joiner, stringValues);
     }
 
     /**
-     * This method performs the expansion on the string value being applied to the output URI. The rules for exapnasion
-     * depends heavily on the {@link Operator} in use. The {@link Operator} will dictate the URI encoding rules that
-     * will be applied to the string.
-     *
+     * Writes values whose string form never needs to be percent-encoded, or can be encoded up front,
+     * without calling <code>toString()</code> or the encoder: integral numbers as decimal digits,
+     * UUIDs in their canonical form, booleans as <code>true</code> or <code>false</code>, and enum
+     * constants as their cached, encoded names. The output is the same as for any other simple value.
      *
      * @param operator
      * @param varSpec
-     * @param variable
-     * @param format
-     * @return
+     * @param value
+     * @param out
+     * @return false if the value is of any other type and has not been written
      */
-    private String expandStringValue(Operator operator, VarSpec varSpec, String variable, VarSpec.VarFormat format)
-    throws VariableExpansionException
+    private boolean expandPlainValue(VarEmitter var, Object value, ExpansionSink out)
     {
-        String expanded;
-
-        if (varSpec.getModifier() == Modifier.PREFIX)
+        final Class<?> type = value.getClass();
+        String name = null;
+        if (type.isEnum())
         {
-            int position = varSpec.getPosition();
-            if (position < variable.length())
+            name = EnumNames.encoded((Enum<?>) value, var.encoding);
+            if (name.isEmpty())
             {
-                variable = variable.substring(0, position);
+                return false;
             }
         }
-
-        try
+        else if (type != Integer.class && type != Long.class && type != Short.class && type != Byte.class
+                 && type != UUID.class && type != Boolean.class)
         {
-            // If we have a {+} or {#} operator, there are items we do not need to encode.
-            if (operator.getEncoding() == Encoding.UR)
-            {
-                expanded = UriUtil.encodeFragment(variable);
-            }
-            else
-            {
-                expanded = UriUtil.encode(variable);
-            }
+            return false;
         }
-        catch (UnsupportedEncodingException e)
+        if (var.valuePrefix != null)
         {
-            throw new VariableExpansionException("Could not expand variable due to a problem URI encoding the value.", e);
+            out.append(var.valuePrefix);
         }
-
-        if (operator.isNamed())
+        if (name != null)
         {
-            if (expanded.isEmpty() && !"&".equals(operator.getSeparator()) )
-            {
-                expanded = varSpec.getValue();
-            }
-            else if (format == VarSpec.VarFormat.SINGLE)
-            {
-                expanded = varSpec.getVariableName() + "=" + expanded;
-            }
-
-            else
-            {
-                if (varSpec.getModifier() == Modifier.EXPLODE &&
-                    operator.useVarNameWhenExploded() &&
-                    format != VarSpec.VarFormat.PAIRS)
-                    {
-                        expanded = varSpec.getVariableName() + "=" + expanded;
-                    }
-
-            }
+            out.append(name);
+        }
+        else if (type == UUID.class)
+        {
+            out.appendUuid((UUID) value);
+        }
+        else if (type == Boolean.class)
+        {
+            out.append(((Boolean) value) ? "true" : "false");
+        }
+        else
+        {
+            out.appendDecimal(((Number) value).longValue());
         }
-        return expanded;
+        return true;
     }
 
 
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A bounded, thread-safe cache of parsed {@link UriTemplate} instances keyed by their template
+ * string. When the cache is full, a template that was not used recently is evicted. Caching is opt-in:
+ * a cache can be used directly, or installed with {@link UriTemplate#setTemplateCache(UriTemplateCache)}
+ * so that {@link UriTemplate#fromTemplate(String)} and the static {@link UriTemplate#expand(String, java.util.Map)}
+ * and {@link UriTemplate#expandPartial(String, java.util.Map)} helpers stop re-parsing the same template strings:
+ * </p>
+ * <pre>
+ * UriTemplate.setTemplateCache(new UriTemplateCache(500));
+ * </pre>
+ * <p>
+ * The cached templates themselves are only used by the static expand helpers. {@link #get(String)}
+ * and {@link UriTemplate#fromTemplate(String)} return a new instance on every call that shares the
+ * parsed form of the cached template, so that <code>set()</code> or <code>withMaximumLength()</code>
+ * on it cannot change what other callers expand.
+ * </p>
+ * <p>
+ * Lookups of cached templates take no lock: they read a {@link ConcurrentHashMap} and mark the
+ * template as used. Eviction approximates least recently used with the CLOCK algorithm: the cached
+ * templates sit in a ring, and a hand that goes round it evicts the first template that was not
+ * used since the hand last passed it. Only adding a template takes a lock. Parsing a missing
+ * template happens outside of that lock, so two threads missing on the same template at once may
+ * both parse it; only one of the results is kept.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public final class UriTemplateCache
+{
+
+    /**
+     * The maximum number of templates held by the cache
+     */
+    private final int maximumSize;
+
+    /**
+     * The cached templates.
+     */
+    private final ConcurrentHashMap<String, Entry> templates = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The template strings of the cached templates, in the order the hand visits them. Guarded by
+     * itself, as are {@link #used} and {@link #hand}.
+     */
+    private final String[] ring;
+
+    /**
+     * The number of slots of the ring in use.
+     */
+    private int used;
+
+    /**
+     * The next slot of the ring to be considered for eviction.
+     */
+    private int hand;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Create a new UriTemplateCache.
+     *
+     * @param maximumSize the maximum number of templates held by the cache
+     * @throws IllegalArgumentException if maximumSize is less than 1
+     */
+    public UriTemplateCache(final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("The maximum size must be at least 1 but was " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.ring = new String[maximumSize];
+    }
+
+    /**
+     * Returns a template for the template string, parsing and caching it if it is not cached yet.
+     * The returned instance is new, without values, and shares the parsed form of the cached
+     * template.
+     *
+     * @param template the URI template string
+     * @return a new template for the template string
+     * @throws MalformedUriTemplateException if the template string is not valid
+     */
+    public UriTemplate get(final String template) throws MalformedUriTemplateException
+    {
+        return shared(template).copy();
+    }
+
+    /**
+     * Returns the cached template for the template string, parsing and caching it if it is not
+     * cached yet. The instance is shared by all callers and must not be modified.
+     *
+     * @param template the URI template string
+     * @return the shared, parsed template
+     * @throws MalformedUriTemplateException if the template string is not valid
+     */
+    UriTemplate shared(final String template) throws MalformedUriTemplateException
+    {
+        final Entry cached = templates.get(template);
+        if (cached != null)
+        {
+            // Only write when the flag changes, so that hits on a hot template do not share a dirty cache line
+            if (!cached.referenced)
+            {
+                cached.referenced = true;
+            }
+            hitCount.incrementAndGet();
+            return cached.template;
+        }
+        missCount.incrementAndGet();
+        final UriTemplate parsed = UriTemplate.parse(template);
+        synchronized (ring)
+        {
+            final Entry other = templates.get(template);
+            if (other != null)
+            {
+                return other.template;
+            }
+            if (used < maximumSize)
+            {
+                ring[used++] = template;
+            }
+            else
+            {
+                // Give the templates used since the last pass a second chance
+                Entry candidate;
+                while ((candidate = templates.get(ring[hand])).referenced)
+                {
+                    candidate.referenced = false;
+                    hand = (hand + 1) % maximumSize;
+                }
+                templates.remove(ring[hand]);
+                evictionCount.incrementAndGet();
+                ring[hand] = template;
+                hand = (hand + 1) % maximumSize;
+            }
+            templates.put(template, new Entry(parsed));
+        }
+        return parsed;
+    }
+
+    /**
+     * Removes all templates from the cache. The statistics are kept.
+     */
+    public void clear()
+    {
+        synchronized (ring)
+        {
+            templates.clear();
+            Arrays.fill(ring, null);
+            used = 0;
+            hand = 0;
+        }
+    }
+
+    /**
+     * Returns the maximum number of templates held by the cache.
+     *
+     * @return the maximum size
+     */
+    public int getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of templates currently in the cache.
+     *
+     * @return the number of cached templates
+     */
+    public int size()
+    {
+        return templates.size();
+    }
+
+    /**
+     * Returns the number of lookups that found a cached template.
+     *
+     * @return the hit count
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to parse the template.
+     *
+     * @return the miss count
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of templates evicted because the cache was full.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "UriTemplateCache [maximumSize=" + maximumSize + ", size=" + templates.size() + ", hitCount="
+               + hitCount + ", missCount=" + missCount + ", evictionCount=" + evictionCount + "]";
+    }
+
+    /**
+     * A cached template and whether it was used since the hand last passed it.
+     */
+    private static final class Entry
+    {
+        final UriTemplate template;
+
+        volatile boolean referenced;
+
+        Entry(UriTemplate template)
+        {
+            this.template = template;
+        }
+    }
+}
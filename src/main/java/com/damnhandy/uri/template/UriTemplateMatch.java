@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * <p>
+ * The result of matching a URI against a {@link UriTemplate} with {@link UriTemplate#match(CharSequence)}.
+ * If the URI matches, the result holds the variables that the URI defines, with their values
+ * percent-decoded:
+ * </p>
+ * <ul>
+ * <li>a single value is a {@link String}</li>
+ * <li>an exploded variable, or a comma separated value of an operator that encodes commas, is a
+ * {@link java.util.List} of Strings</li>
+ * <li>an exploded variable of <code>;</code>, <code>?</code> or <code>&amp;</code> whose pairs
+ * carry other names is a {@link Map} of Strings</li>
+ * </ul>
+ * <p>
+ * Single values are not copied out of the URI when it is matched. They are decoded when they are
+ * first asked for, so a caller that reads one variable of many does not pay for the others;
+ * {@link #getRaw(String)}, {@link #getLong(String)} and {@link #getUuid(String)} read the URI
+ * without decoding it at all when they can. A URI that is not a {@link String} is copied before
+ * it is matched, so that these views do not change with it.
+ * </p>
+ * <p>
+ * Variables that are absent from the URI are not defined in the result. The parameters of the
+ * URI that no variable names are handled as the {@link UnknownParameters} policy passed to
+ * {@link UriTemplate#match(CharSequence, UnknownParameters)} says.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public final class UriTemplateMatch
+{
+
+    /**
+     * What to do with the <code>name=value</code> pairs of <code>;</code>, <code>?</code> and
+     * <code>&amp;</code> expressions that are not named after one of their variables, such as
+     * tracking parameters added to a query.
+     */
+    public enum UnknownParameters
+    {
+        /**
+         * The URI does not match.
+         */
+        REJECT,
+
+        /**
+         * The parameters are skipped.
+         */
+        IGNORE,
+
+        /**
+         * The parameters are returned by {@link UriTemplateMatch#getUnknownParameters()}.
+         */
+        COLLECT
+    }
+
+    /**
+     * The result for a URI that does not match the template.
+     */
+    static final UriTemplateMatch NO_MATCH = new UriTemplateMatch(false, Collections.<String, Object>emptyMap(),
+                                                                  null);
+
+    private final boolean matches;
+
+    /**
+     * The values as the matcher found them: single values are {@link Capture}s.
+     */
+    private final Map<String, Object> values;
+
+    /**
+     * The decoded values, once they were asked for.
+     */
+    private volatile Map<String, Object> decodedValues;
+
+    private final Map<String, List<String>> unknownParameters;
+
+    private UriTemplateMatch(boolean matches, Map<String, Object> values, Map<String, List<String>> unknownParameters)
+    {
+        this.matches = matches;
+        this.values = values;
+        if (unknownParameters == null || unknownParameters.isEmpty())
+        {
+            this.unknownParameters = Collections.emptyMap();
+        }
+        else
+        {
+            // The lists were appended to while matching; they are frozen now that the match is done
+            for (Map.Entry<String, List<String>> entry : unknownParameters.entrySet())
+            {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            this.unknownParameters = Collections.unmodifiableMap(unknownParameters);
+        }
+    }
+
+    /**
+     * Creates the result for a URI that matches, taking ownership of the values.
+     *
+     * @param values
+     * @return
+     */
+    static UriTemplateMatch of(Map<String, Object> values)
+    {
+        return of(values, null);
+    }
+
+    /**
+     * Creates the result for a URI that matches, taking ownership of the values and of the
+     * collected parameters, whose lists are made unmodifiable.
+     *
+     * @param values
+     * @param unknownParameters the parameters that no variable names, or <code>null</code>
+     * @return
+     */
+    static UriTemplateMatch of(Map<String, Object> values, Map<String, List<String>> unknownParameters)
+    {
+        return new UriTemplateMatch(true, values, unknownParameters);
+    }
+
+    /**
+     * Returns the value a caller sees for a value found by the matcher: captures are decoded.
+     *
+     * @param value
+     * @return
+     */
+    static Object resolve(Object value)
+    {
+        return value instanceof Capture ? ((Capture) value).decode() : value;
+    }
+
+    /**
+     * Returns true if the URI matches the template.
+     *
+     * @return true if the URI matches
+     */
+    public boolean matches()
+    {
+        return matches;
+    }
+
+    /**
+     * Returns the variables defined by the URI, in the order they appear in it. Empty if the URI
+     * does not match.
+     *
+     * @return an unmodifiable map of the variable values
+     */
+    public Map<String, Object> getValues()
+    {
+        Map<String, Object> decoded = decodedValues;
+        if (decoded == null)
+        {
+            decoded = new LinkedHashMap<String, Object>(values);
+            for (Map.Entry<String, Object> entry : decoded.entrySet())
+            {
+                entry.setValue(resolve(entry.getValue()));
+            }
+            decoded = Collections.unmodifiableMap(decoded);
+            decodedValues = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns true if the URI defines the variable.
+     *
+     * @param name the variable name
+     * @return true if the variable has a value
+     */
+    public boolean isDefined(String name)
+    {
+        return values.containsKey(name);
+    }
+
+    /**
+     * Returns the value of the variable.
+     *
+     * @param name the variable name
+     * @return the value, or <code>null</code> if the URI does not define the variable
+     */
+    public Object get(String name)
+    {
+        return resolve(values.get(name));
+    }
+
+    /**
+     * Returns the value of the variable as it appears in the URI, without decoding it. The result
+     * is a view of the URI, not a copy.
+     *
+     * @param name the variable name
+     * @return the text of the value, or <code>null</code> if the URI does not define the variable
+     *         or its value is a list or a map
+     */
+    public CharSequence getRaw(String name)
+    {
+        final Object value = values.get(name);
+        return value instanceof Capture ? (Capture) value : null;
+    }
+
+    /**
+     * Returns the value of the variable as a decimal <code>long</code>, parsed from the URI
+     * without creating a String when the value is not percent-encoded.
+     *
+     * @param name the variable name
+     * @return the number
+     * @throws NumberFormatException if the URI does not define the variable, or its value is not
+     *                               a single number
+     */
+    public long getLong(String name)
+    {
+        final Object value = values.get(name);
+        if (!(value instanceof Capture))
+        {
+            throw new NumberFormatException(notSingleValue(name, value));
+        }
+        return ((Capture) value).parseLong();
+    }
+
+    /**
+     * Returns the value of the variable as a {@link UUID}, parsed from the URI without creating a
+     * String when the value is not percent-encoded.
+     *
+     * @param name the variable name
+     * @return the UUID
+     * @throws IllegalArgumentException if the URI does not define the variable, or its value is not
+     *                                  a single UUID
+     */
+    public UUID getUuid(String name)
+    {
+        final Object value = values.get(name);
+        if (!(value instanceof Capture))
+        {
+            throw new IllegalArgumentException(notSingleValue(name, value));
+        }
+        return ((Capture) value).parseUuid();
+    }
+
+    private static String notSingleValue(String name, Object value)
+    {
+        return value == null ? "The variable " + name + " is not defined"
+                             : "The value of the variable " + name + " is not a single value";
+    }
+
+    /**
+     * Returns the parameters of the URI that no variable names, with their percent-decoded values
+     * in the order they appear. Only filled when the URI was matched with
+     * {@link UnknownParameters#COLLECT}.
+     *
+     * @return an unmodifiable map of the parameter values
+     */
+    public Map<String, List<String>> getUnknownParameters()
+    {
+        return unknownParameters;
+    }
+
+    @Override
+    public String toString()
+    {
+        return matches ? "UriTemplateMatch " + getValues() : "UriTemplateMatch [no match]";
+    }
+}
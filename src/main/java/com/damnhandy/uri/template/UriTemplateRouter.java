@@ -0,0 +1,698 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.UriTemplateMatch.UnknownParameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Finds which of many {@link UriTemplate}s a URI matches, and the values of its variables. The
+ * templates are compiled into one prefix tree: the literals of the templates are shared character
+ * by character, and each expression is an edge that takes up the part of the URI that
+ * {@link UriTemplate#match(CharSequence)} would give it. Templates that start alike are walked
+ * once, whether they differ in a literal or after an expression, so a lookup does not try every
+ * template in turn. It is not a single pass over the URI, though: where an expression could end
+ * at more than one place, each of them is tried, with its own copy of the values found so far,
+ * until the rest of some template matches:
+ * </p>
+ * <pre>
+ * UriTemplateRouter&lt;Handler&gt; router = UriTemplateRouter.&lt;Handler&gt;builder()
+ *     .add("/users/{id}", showUser)
+ *     .add("/users/{id}/repos{?page}", listRepos)
+ *     .add("/users/me", showCurrentUser)
+ *     .build();
+ *
+ * UriTemplateRouter.Route&lt;Handler&gt; route = router.route("/users/42/repos?page=2");
+ * route.getTarget();           // listRepos
+ * route.getMatch().get("id");  // "42"
+ * </pre>
+ * <p>
+ * When a URI matches more than one template, the most specific one wins. Walking the URI from
+ * left to right, at the first place where the templates differ:
+ * </p>
+ * <ol>
+ * <li>a template that ends there beats one that goes on with an expression that matches nothing</li>
+ * <li>a literal beats an expression, and a longer literal beats a shorter one</li>
+ * <li>an expression of an operator that encodes reserved characters beats <code>{+var}</code> and
+ * <code>{#var}</code></li>
+ * <li>otherwise the template that was added first wins</li>
+ * </ol>
+ * <p>
+ * So <code>/users/me</code> goes to the literal template above, not to <code>/users/{id}</code>.
+ * Two templates that match exactly the same URIs, such as <code>/users/{id}</code> and
+ * <code>/users/{name}</code>, are rejected when they are added. Templates that only overlap are
+ * accepted and the rules above pick one of them without warning: <code>/a/{x}</code> and
+ * <code>/{y}/b</code> both match <code>/a/b</code>, which goes to <code>/a/{x}</code> because its
+ * literal comes first.
+ * </p>
+ * <p>
+ * A router is immutable and may be shared between threads.
+ * </p>
+ *
+ * @param <T> the type of the value that is routed to
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public final class UriTemplateRouter<T>
+{
+
+    /**
+     * Tells {@link #routeExpressions} to follow the edges of any operator.
+     */
+    private static final int ANY = -1;
+
+    private final Node<T> root;
+
+    private final int size;
+
+    private UriTemplateRouter(Node<T> root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Creates a builder for a new router.
+     *
+     * @param <T> the type of the value that is routed to
+     * @return
+     */
+    public static <T> Builder<T> builder()
+    {
+        return new Builder<T>();
+    }
+
+    /**
+     * Returns the number of templates in the router.
+     *
+     * @return
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Finds the most specific template that matches the URI. A URI with parameters that the
+     * template does not name does not match it.
+     *
+     * @param uri the URI
+     * @return the route, or <code>null</code> if no template matches
+     */
+    public Route<T> route(CharSequence uri)
+    {
+        return route(uri, UnknownParameters.REJECT);
+    }
+
+    /**
+     * Finds the most specific template that matches the URI, handling the parameters that a
+     * template does not name as the policy says. A URI that is not a {@link String} is copied
+     * first, so that changing it afterwards does not change the values of the match.
+     *
+     * @param uri the URI
+     * @param unknownParameters what to do with the parameters that a template does not name
+     * @return the route, or <code>null</code> if no template matches
+     */
+    public Route<T> route(CharSequence uri, UnknownParameters unknownParameters)
+    {
+        return routeView(uri.toString(), unknownParameters);
+    }
+
+    /**
+     * Routes the URI without copying it. The values of the match are views of the URI, so they
+     * must be read before it changes.
+     */
+    Route<T> routeView(CharSequence uri, UnknownParameters unknownParameters)
+    {
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+        final Map<String, List<String>> unknown = unknownParameters == UnknownParameters.COLLECT
+                                                  ? new LinkedHashMap<String, List<String>>() : null;
+        final Node<T> node = route(root, uri, 0, values, unknownParameters, unknown);
+        return node == null ? null : new Route<T>(node.template, node.target, UriTemplateMatch.of(values, unknown));
+    }
+
+    /**
+     * Walks the tree from the node at the given position of the URI.
+     *
+     * @param values the values found so far, to which the values of the matching branch are added
+     * @param unknown the parameters collected so far, or <code>null</code>
+     * @return the node of the matching template, or <code>null</code>
+     */
+    private static <T> Node<T> route(Node<T> node, CharSequence uri, int pos, Map<String, Object> values,
+                                     UnknownParameters policy, Map<String, List<String>> unknown)
+    {
+        if (pos == uri.length() && node.template != null)
+        {
+            return node;
+        }
+        if (node.literals != null)
+        {
+            final Node<T> found = routeLiteral(node.literals, uri, pos, values, policy, unknown);
+            if (found != null)
+            {
+                return found;
+            }
+        }
+        return routeExpressions(node, uri, pos, ANY, values, policy, unknown);
+    }
+
+    /**
+     * Follows the literals of the trie that the URI starts with at the given position, longest
+     * first.
+     */
+    private static <T> Node<T> routeLiteral(Trie<T> trie, CharSequence uri, int pos, Map<String, Object> values,
+                                            UnknownParameters policy, Map<String, List<String>> unknown)
+    {
+        if (pos < uri.length())
+        {
+            final Trie<T> child = trie.child(uri.charAt(pos));
+            if (child != null)
+            {
+                final Node<T> found = routeLiteral(child, uri, pos + 1, values, policy, unknown);
+                if (found != null)
+                {
+                    return found;
+                }
+            }
+        }
+        return trie.node == null ? null : route(trie.node, uri, pos, values, policy, unknown);
+    }
+
+    /**
+     * Follows the expression edges of the node, or only those of the operator given by
+     * <code>stop</code> unless it is {@link #ANY}.
+     */
+    private static <T> Node<T> routeExpressions(Node<T> node, CharSequence uri, int pos, int stop,
+                                                Map<String, Object> values, UnknownParameters policy,
+                                                Map<String, List<String>> unknown)
+    {
+        for (Edge<T> edge : node.expressions)
+        {
+            if (stop == ANY || edge.step.prefix == stop)
+            {
+                final Node<T> found = routeEdge(edge, uri, pos, values, policy, unknown);
+                if (found != null)
+                {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Follows an expression edge. Where the expression ends depends on what comes after it, and
+     * the templates that share the edge may go on in different ways, so each of them is tried:
+     * <ol>
+     * <li>the literals of the node the edge leads to, longest first; the expression ends where the
+     * literal first occurs, or where the URI ends with it if the literal ends a template. The value
+     * of a reserved expression may contain the literal, so it is tried up to every occurrence, as
+     * {@link UriTemplate#match(CharSequence)} does</li>
+     * <li>the end of a template, when the expression takes up the rest of the URI</li>
+     * <li>the expressions of the node, the values ending at their operator character</li>
+     * </ol>
+     * The first occurrences of all of the literals are found in one walk of the URI over their
+     * trie, so the cost does not grow with the number of templates that share the edge.
+     */
+    private static <T> Node<T> routeEdge(Edge<T> edge, CharSequence uri, int pos, Map<String, Object> values,
+                                         UnknownParameters policy, Map<String, List<String>> unknown)
+    {
+        final Node<T> node = edge.node;
+        final int length = uri.length();
+        if (node.literals != null)
+        {
+            final boolean every = edge.step.reserved;
+            for (Occurrence<T> occurrence : occurrences(node, uri, pos, every))
+            {
+                final Trie<T> trie = occurrence.trie;
+                final int end = occurrence.pos;
+                final int suffix = length - trie.literal.length();
+                Node<T> found = null;
+                if (trie.node.expressions.length > 0 || suffix == end)
+                {
+                    found = branch(edge.step, trie.node, uri, pos, end, (char) 0, end + trie.literal.length(),
+                                   values, policy, unknown);
+                }
+                if (found == null && !every && trie.node.template != null && suffix > end
+                    && UriMatcher.regionMatches(uri, suffix, length, trie.literal))
+                {
+                    found = branch(edge.step, trie.node, uri, pos, suffix, (char) 0, length, values, policy, unknown);
+                }
+                if (found != null)
+                {
+                    return found;
+                }
+            }
+        }
+        if (node.template != null)
+        {
+            final Node<T> found = branch(edge.step, node, uri, pos, length, (char) 0, length, values, policy, unknown);
+            if (found != null)
+            {
+                return found;
+            }
+        }
+        for (int i = 0; i < node.expressions.length; i++)
+        {
+            final char stop = node.expressions[i].step.prefix;
+            boolean tried = false;
+            for (int j = 0; j < i && !tried; j++)
+            {
+                tried = node.expressions[j].step.prefix == stop;
+            }
+            if (!tried)
+            {
+                final Node<T> found = branch(edge.step, node, uri, pos, length, stop, -1, values, policy, unknown);
+                if (found != null)
+                {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Matches an expression within <code>[pos, end)</code> and goes on in the given node. The values
+     * are found in a branch of their own and added to <code>values</code> only if the rest of the URI
+     * matches too, so that a branch that fails further down does not leak into the next one.
+     *
+     * @param stop the operator character of the expression that follows, or 0
+     * @param resume where to go on in the node, which the expression must end right before; or -1
+     *               to go on with the expressions of the node that start with <code>stop</code>,
+     *               wherever the expression ends
+     */
+    private static <T> Node<T> branch(UriMatcher.Step step, Node<T> node, CharSequence uri, int pos, int end,
+                                      char stop, int resume, Map<String, Object> values,
+                                      UnknownParameters policy, Map<String, List<String>> unknown)
+    {
+        final Map<String, Object> branch = new LinkedHashMap<String, Object>(values);
+        final Map<String, List<String>> branchUnknown = unknown == null ? null : UriMatcher.copy(unknown);
+        final int next = UriMatcher.matchExpression(step, uri, pos, end, stop, branch, policy, branchUnknown);
+        final Node<T> found;
+        if (next < 0 || resume >= 0 && next != end)
+        {
+            found = null;
+        }
+        else if (resume >= 0)
+        {
+            found = route(node, uri, resume, branch, policy, branchUnknown);
+        }
+        else
+        {
+            found = routeExpressions(node, uri, next, stop, branch, policy, branchUnknown);
+        }
+        if (found != null)
+        {
+            values.putAll(branch);
+            if (unknown != null)
+            {
+                unknown.putAll(branchUnknown);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds where each of the literals of the node first occurs in the URI, at or after the given
+     * position, or every place where it occurs. The literals are returned longest first, and those
+     * of the same length in the order they occur.
+     */
+    private static <T> List<Occurrence<T>> occurrences(Node<T> node, CharSequence uri, int pos, boolean every)
+    {
+        final List<Occurrence<T>> occurrences = new ArrayList<Occurrence<T>>();
+        final boolean[] seen = new boolean[node.literalCount];
+        final int length = uri.length();
+        for (int p = pos; p < length && (every || occurrences.size() < node.literalCount); p++)
+        {
+            Trie<T> trie = node.literals;
+            for (int i = p; i < length && (trie = trie.child(uri.charAt(i))) != null; i++)
+            {
+                if (trie.node != null && (every || !seen[trie.index]))
+                {
+                    seen[trie.index] = true;
+                    occurrences.add(new Occurrence<T>(trie, p));
+                }
+            }
+        }
+        if (occurrences.size() > 1)
+        {
+            Collections.sort(occurrences, new Comparator<Occurrence<T>>()
+            {
+                @Override
+                public int compare(Occurrence<T> a, Occurrence<T> b)
+                {
+                    final int byLength = b.trie.literal.length() - a.trie.literal.length();
+                    return byLength != 0 ? byLength : a.pos - b.pos;
+                }
+            });
+        }
+        return occurrences;
+    }
+
+    /**
+     * Returns the number of expression edges in the tree.
+     *
+     * @return
+     */
+    int edgeCount()
+    {
+        return edgeCount(root);
+    }
+
+    private static int edgeCount(Node<?> node)
+    {
+        int count = node.expressions.length;
+        for (Edge<?> edge : node.expressions)
+        {
+            count += edgeCount(edge.node);
+        }
+        if (node.literals != null)
+        {
+            count += edgeCount(node.literals);
+        }
+        return count;
+    }
+
+    private static int edgeCount(Trie<?> trie)
+    {
+        int count = trie.node != null ? edgeCount(trie.node) : 0;
+        for (Trie<?> child : trie.children)
+        {
+            count += edgeCount(child);
+        }
+        return count;
+    }
+
+    /**
+     * A template together with the value it routes to and the values of its variables.
+     *
+     * @param <T> the type of the value that is routed to
+     */
+    public static final class Route<T>
+    {
+        private final UriTemplate template;
+
+        private final T target;
+
+        private final UriTemplateMatch match;
+
+        private Route(UriTemplate template, T target, UriTemplateMatch match)
+        {
+            this.template = template;
+            this.target = target;
+            this.match = match;
+        }
+
+        /**
+         * Returns the template that the URI matches.
+         *
+         * @return
+         */
+        public UriTemplate getTemplate()
+        {
+            return template;
+        }
+
+        /**
+         * Returns the value that was added with the template.
+         *
+         * @return
+         */
+        public T getTarget()
+        {
+            return target;
+        }
+
+        /**
+         * Returns the values of the variables of the template.
+         *
+         * @return
+         */
+        public UriTemplateMatch getMatch()
+        {
+            return match;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Route [" + template.getTemplate() + " -> " + target + "] " + match.getValues();
+        }
+    }
+
+    /**
+     * Collects the templates of a {@link UriTemplateRouter}.
+     *
+     * @param <T> the type of the value that is routed to
+     */
+    public static final class Builder<T>
+    {
+        private final Node<T> root = new Node<T>();
+
+        /**
+         * The templates added so far, by the shapes of their steps.
+         */
+        private final Map<List<String>, UriTemplate> shapes = new HashMap<List<String>, UriTemplate>();
+
+        private boolean built;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Adds a template.
+         *
+         * @param template the template
+         * @param target the value that URIs matching the template are routed to
+         * @return the builder
+         * @throws IllegalArgumentException if the router already has a template that matches
+         *                                  exactly the same URIs
+         * @throws IllegalStateException if the router was built
+         */
+        public Builder<T> add(UriTemplate template, T target)
+        {
+            if (built)
+            {
+                throw new IllegalStateException("The router was already built");
+            }
+            final UriMatcher.Step[] steps = template.matcher().steps();
+            final String[] shape = new String[steps.length];
+            for (int i = 0; i < steps.length; i++)
+            {
+                shape[i] = steps[i].shape();
+            }
+            final UriTemplate other = shapes.get(Arrays.asList(shape));
+            if (other != null)
+            {
+                throw new IllegalArgumentException("The template " + template.getTemplate()
+                                                   + " matches the same URIs as " + other.getTemplate());
+            }
+            shapes.put(Arrays.asList(shape), template);
+
+            Node<T> node = root;
+            for (UriMatcher.Step step : steps)
+            {
+                node = step.literal != null ? node.literal(step.literal) : node.expression(step);
+            }
+            node.template = template;
+            node.target = target;
+            return this;
+        }
+
+        /**
+         * Parses and adds a template.
+         *
+         * @param template the template string
+         * @param target the value that URIs matching the template are routed to
+         * @return the builder
+         * @throws MalformedUriTemplateException if the template is not valid
+         * @throws IllegalArgumentException if the router already has a template that matches
+         *                                  exactly the same URIs
+         * @throws IllegalStateException if the router was built
+         */
+        public Builder<T> add(String template, T target)
+        {
+            return add(UriTemplate.fromTemplate(template), target);
+        }
+
+        /**
+         * Builds the router. The builder cannot be used afterwards.
+         *
+         * @return the router
+         */
+        public UriTemplateRouter<T> build()
+        {
+            built = true;
+            return new UriTemplateRouter<T>(root, shapes.size());
+        }
+    }
+
+    /**
+     * A point in the tree where the templates that share what comes before may go on with a
+     * literal, go on with an expression, or end.
+     */
+    private static final class Node<T>
+    {
+        Trie<T> literals;
+
+        /**
+         * The number of literals in {@link #literals}.
+         */
+        int literalCount;
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Edge<T>[] expressions = new Edge[0];
+
+        UriTemplate template;
+
+        T target;
+
+        Node<T> literal(String literal)
+        {
+            if (literals == null)
+            {
+                literals = new Trie<T>();
+            }
+            Trie<T> trie = literals;
+            for (int i = 0; i < literal.length(); i++)
+            {
+                trie = trie.add(literal.charAt(i));
+            }
+            if (trie.node == null)
+            {
+                trie.node = new Node<T>();
+                trie.literal = literal;
+                trie.index = literalCount++;
+            }
+            return trie.node;
+        }
+
+        Node<T> expression(UriMatcher.Step step)
+        {
+            for (Edge<T> edge : expressions)
+            {
+                if (edge.step.equals(step))
+                {
+                    return edge.node;
+                }
+            }
+            // Keep the edges in the order they are tried: narrow operators first, then insertion order
+            int i = expressions.length;
+            while (i > 0 && expressions[i - 1].step.reserved && !step.reserved)
+            {
+                i--;
+            }
+            final List<Edge<T>> edges = new ArrayList<Edge<T>>(Arrays.asList(expressions));
+            final Edge<T> edge = new Edge<T>(step, new Node<T>());
+            edges.add(i, edge);
+            expressions = edges.toArray(expressions);
+            return edge.node;
+        }
+    }
+
+    private static final class Edge<T>
+    {
+        final UriMatcher.Step step;
+
+        final Node<T> node;
+
+        Edge(UriMatcher.Step step, Node<T> node)
+        {
+            this.step = step;
+            this.node = node;
+        }
+    }
+
+    /**
+     * A literal of a trie and where it first occurs in a URI.
+     */
+    private static final class Occurrence<T>
+    {
+        final Trie<T> trie;
+
+        final int pos;
+
+        Occurrence(Trie<T> trie, int pos)
+        {
+            this.trie = trie;
+            this.pos = pos;
+        }
+    }
+
+    /**
+     * The literals that go on from a node, one character per level. The children are kept sorted
+     * by character.
+     */
+    private static final class Trie<T>
+    {
+        private char[] chars = new char[0];
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private Trie<T>[] children = new Trie[0];
+
+        /**
+         * The node reached by the literal that ends here, or <code>null</code>.
+         */
+        Node<T> node;
+
+        /**
+         * The literal that ends here, or <code>null</code>.
+         */
+        String literal;
+
+        /**
+         * The number of the literal that ends here among those of the trie.
+         */
+        int index;
+
+        Trie<T> child(char c)
+        {
+            final int i = Arrays.binarySearch(chars, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Trie<T> add(char c)
+        {
+            int i = Arrays.binarySearch(chars, c);
+            if (i < 0)
+            {
+                i = -i - 1;
+                final char[] newChars = new char[chars.length + 1];
+                final Trie<T>[] newChildren = Arrays.copyOf(children, children.length + 1);
+                System.arraycopy(chars, 0, newChars, 0, i);
+                System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+                System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+                newChars[i] = c;
+                newChildren[i] = new Trie<T>();
+                chars = newChars;
+                children = newChildren;
+            }
+            return children[i];
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+/**
+ * <p>
+ * Raised when an expanded URI would be longer than the maximum length set with
+ * {@link UriTemplate#withMaximumLength(int)}. The expansion stops as soon as the limit is
+ * reached, so the rest of the template is never expanded.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public class UriTooLongException extends VariableExpansionException
+{
+
+   /** The serialVersionUID */
+   private static final long serialVersionUID = 6502215432364016472L;
+
+   private final String variableName;
+
+   private final int maximumLength;
+
+   /**
+    * Create a new UriTooLongException.
+    *
+    * @param variableName the variable being expanded when the limit was reached, or
+    *                     <code>null</code> if it was reached in a literal
+    * @param maximumLength the maximum length of the URI
+    */
+   public UriTooLongException(final String variableName, final int maximumLength)
+   {
+      super("The expanded URI is longer than " + maximumLength + " characters"
+            + (variableName != null ? " at the variable " + variableName : ""));
+      this.variableName = variableName;
+      this.maximumLength = maximumLength;
+   }
+
+   /**
+    * Returns the name of the variable that was being expanded when the limit was reached.
+    *
+    * @return the variable name, or <code>null</code> if the limit was reached in a literal
+    */
+   public String getVariableName()
+   {
+      return variableName;
+   }
+
+   /**
+    * Returns the maximum length of the URI.
+    *
+    * @return the maximum length
+    */
+   public int getMaximumLength()
+   {
+      return maximumLength;
+   }
+}
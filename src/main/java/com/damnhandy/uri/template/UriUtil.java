@@ -15,14 +15,9 @@
  */
 package com.damnhandy.uri.template;
 
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.BitSet;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
@@ -36,8 +31,6 @@ import java.util.regex.Pattern;
  */
 public final class UriUtil
 {
-    static final Pattern PCT_ENCODDED_STRING = Pattern.compile("%[0-9A-Fa-f]{2}");
-
     static final char[] GENERAL_DELIM_CHARS = {':', '/', ',', '?', '#', '[', ']', '@'};
 
     static final char[] SUB_DELIMS_CHARS = {'!', '$', '&', '\'', '(', ')', '*', '+', ',', ';', '=', '<', '>', '{', '}'};
@@ -46,6 +39,21 @@ public final class UriUtil
 
     private static final BitSet ESCAPE_CHARS;
 
+    /**
+     * The upper case hex digits, indexed by nibble.
+     */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * For each UTF-8 byte value, true if {@link #encode(String)} percent-encodes it.
+     */
+    private static final boolean[] ENCODE_RESERVED;
+
+    /**
+     * For each UTF-8 byte value, true if {@link #encodeFragment(String)} percent-encodes it.
+     */
+    private static final boolean[] ENCODE_ESCAPE_CHARS;
+
     static
     {
 
@@ -80,6 +88,26 @@ public final class UriUtil
         ESCAPE_CHARS.set('[');
         ESCAPE_CHARS.set(']');
         ESCAPE_CHARS.set('`');
+
+        ENCODE_RESERVED = encodingTable(RESERVED);
+        ENCODE_ESCAPE_CHARS = encodingTable(ESCAPE_CHARS);
+    }
+
+    /**
+     * Builds the lookup table for a set of characters. Besides the characters in the set, the
+     * space, all control characters and every byte of a multi-byte UTF-8 sequence are encoded.
+     *
+     * @param chars
+     * @return
+     */
+    private static boolean[] encodingTable(BitSet chars)
+    {
+        final boolean[] table = new boolean[256];
+        for (int b = 0; b < table.length; b++)
+        {
+            table[b] = chars.get(b) || b <= 0x20 || b >= 0x80;
+        }
+        return table;
     }
 
     private UriUtil()
@@ -93,73 +121,323 @@ public final class UriUtil
      */
     public static String encodeFragment(String sourceValue) throws UnsupportedEncodingException
     {
-        // Check if the string has %-encoded values already.
-        // if it does, rebuild the string and encode the non-encoded bit
-        // but don't re-encode the already encoded strings.
-        //
-        // There's probably a cleaner way to do this.
-        Matcher m = PCT_ENCODDED_STRING.matcher(sourceValue);
-        List<int[]> positions = new ArrayList<int[]>();
-        while (m.find())
+        return encode(sourceValue, ENCODE_ESCAPE_CHARS, true);
+    }
+
+    /**
+     * @param sourceValue
+     * @return the encoded string
+     */
+    public static String encode(String sourceValue) throws UnsupportedEncodingException
+    {
+        return encode(sourceValue, ENCODE_RESERVED, false);
+    }
+
+    /**
+     * Percent-encodes the range of the value like {@link #encodeFragment(String)}, writing the
+     * result straight to the sink.
+     *
+     * @param sourceValue
+     * @param start
+     * @param end
+     * @param out
+     */
+    static void encodeFragment(CharSequence sourceValue, int start, int end, ExpansionSink out)
+    {
+        encode(sourceValue, start, end, ENCODE_ESCAPE_CHARS, true, out);
+    }
+
+    /**
+     * Percent-encodes the range of the value like {@link #encode(String)}, writing the result
+     * straight to the sink.
+     *
+     * @param sourceValue
+     * @param start
+     * @param end
+     * @param out
+     */
+    static void encode(CharSequence sourceValue, int start, int end, ExpansionSink out)
+    {
+        encode(sourceValue, start, end, ENCODE_RESERVED, false, out);
+    }
+
+    /**
+     * Percent-encodes the reserved characters in the range of a value that is already encoded
+     * for {@link UriTemplate.Encoding#UR}, keeping its escapes, and writes the result to the sink.
+     *
+     * @param sourceValue
+     * @param start
+     * @param end
+     * @param out
+     */
+    static void encodeKeepingEscapes(CharSequence sourceValue, int start, int end, ExpansionSink out)
+    {
+        encode(sourceValue, start, end, ENCODE_RESERVED, true, out);
+    }
+
+    /**
+     * Returns the index of the first character of the value that would have to be encoded for the
+     * encoding, not counting valid <code>%XX</code> escapes, or -1 if the value is encoded.
+     *
+     * @param value
+     * @param encoding
+     * @return
+     */
+    static int indexOfUnencoded(CharSequence value, UriTemplate.Encoding encoding)
+    {
+        final boolean[] table = encoding == UriTemplate.Encoding.U ? ENCODE_RESERVED : ENCODE_ESCAPE_CHARS;
+        final int length = value.length();
+        int i = 0;
+        while (i < length)
         {
-            positions.add(new int[]{m.start(), m.end()});
+            final char c = value.charAt(i);
+            if (c < 0x80 && !table[c])
+            {
+                i++;
+            }
+            else if (isEscape(value, i, length))
+            {
+                i += 3;
+            }
+            else
+            {
+                return i;
+            }
         }
-        if(!positions.isEmpty())
+        return -1;
+    }
+
+    /**
+     * Returns where the first <code>maxLength</code> characters of an encoded value end, counting
+     * characters as the prefix modifier counts them in the decoded value: a <code>%XX</code> escape
+     * is one character, and so are the escapes of the UTF-8 bytes of one code point.
+     *
+     * @param value
+     * @param maxLength
+     * @return
+     */
+    static int prefixEnd(CharSequence value, int maxLength)
+    {
+        final int length = value.length();
+        int i = 0;
+        for (int n = 0; n < maxLength && i < length; n++)
         {
-            StringBuilder b = new StringBuilder();
-            int offset = 0;
-            for (int[] pos : positions)
-            {
-                // encode the non-encoded portion of the string
-                b.append(UriUtil.encode(sourceValue.substring(offset, pos[0]),ESCAPE_CHARS));
-                // the already encodede string does not get encoded twice
-                b.append(sourceValue.substring(pos[0], pos[1]));
-                offset = pos[1];
-            }
-            b.append(encode(sourceValue.substring(offset, sourceValue.length()),ESCAPE_CHARS));
-            return b.toString();
+            if (!isEscape(value, i, length))
+            {
+                i++;
+                continue;
+            }
+            final int lead = octet(value, i);
+            i += 3;
+            // The continuation bytes of a multi-byte sequence belong to the same character
+            int continuations = lead >= 0xF0 ? 3 : lead >= 0xE0 ? 2 : lead >= 0xC0 ? 1 : 0;
+            while (continuations-- > 0 && i < length && isEscape(value, i, length) && (octet(value, i) & 0xC0) == 0x80)
+            {
+                i += 3;
+            }
         }
-        // If there's
-        return encode(sourceValue, ESCAPE_CHARS);
+        return i;
     }
 
     /**
+     * Percent-encodes the UTF-8 bytes of the value that are marked in the table. The value is
+     * scanned first, and if nothing needs to be encoded, it is returned as is.
+     *
      * @param sourceValue
+     * @param table
+     * @param keepEscapes
      * @return the encoded string
      */
-    public static String encode(String sourceValue) throws UnsupportedEncodingException
+    private static String encode(String sourceValue, boolean[] table, boolean keepEscapes)
+    {
+        final int length = sourceValue.length();
+        int i = 0;
+        while (i < length)
+        {
+            final char c = sourceValue.charAt(i);
+            if (c < 0x80 && !table[c])
+            {
+                i++;
+            }
+            else if (keepEscapes && isEscape(sourceValue, i, length))
+            {
+                i += 3;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (i == length)
+        {
+            return sourceValue;
+        }
+        final StringBuilder b = new StringBuilder(length + 16);
+        b.append(sourceValue, 0, i);
+        encode(sourceValue, i, length, table, keepEscapes, ExpansionSink.of(b));
+        return b.toString();
+    }
+
+    /**
+     * Decodes the percent-encoded triplets in the range of the value. Runs of triplets are decoded
+     * as UTF-8; a <code>%</code> that does not start a triplet is kept as it is.
+     *
+     * @param value
+     * @param start
+     * @param end
+     * @return the decoded string
+     */
+    static String decode(CharSequence value, int start, int end)
     {
-        return encode(sourceValue, RESERVED);
+        int i = start;
+        while (i < end && value.charAt(i) != '%')
+        {
+            i++;
+        }
+        if (i == end)
+        {
+            return value.subSequence(start, end).toString();
+        }
+        final StringBuilder b = new StringBuilder(end - start);
+        b.append(value, start, i);
+        byte[] bytes = null;
+        while (i < end)
+        {
+            if (!isEscape(value, i, end))
+            {
+                b.append(value.charAt(i++));
+                continue;
+            }
+            if (bytes == null)
+            {
+                bytes = new byte[(end - i) / 3];
+            }
+            int count = 0;
+            while (i < end && isEscape(value, i, end))
+            {
+                bytes[count++] = (byte) octet(value, i);
+                i += 3;
+            }
+            b.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+        }
+        return b.toString();
     }
 
     /**
+     * Returns true if the range of the value has a percent-encoded triplet, such as
+     * <code>%2F</code>, at the index.
+     *
+     * @param s
+     * @param index
+     * @param end
+     * @return
+     */
+    private static boolean isEscape(CharSequence s, int index, int end)
+    {
+        return s.charAt(index) == '%' && index + 2 < end && isHexDigit(s.charAt(index + 1))
+               && isHexDigit(s.charAt(index + 2));
+    }
+
+    /**
+     * Returns the octet of the percent-encoded triplet at the index.
+     */
+    private static int octet(CharSequence s, int index)
+    {
+        return Character.digit(s.charAt(index + 1), 16) << 4 | Character.digit(s.charAt(index + 2), 16);
+    }
+
+    private static boolean isHexDigit(char c)
+    {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f');
+    }
+
+    /**
+     * <p>
+     * Percent-encodes the UTF-8 bytes of the range of the value that are marked in the table,
+     * walking it one code point at a time. Runs of characters that need no encoding are written
+     * to the sink in one piece, escapes are written as they are produced.
+     * </p>
+     * <p>
+     * If keepEscapes is true, triplets that are already percent-encoded are recognized as the
+     * value is walked and copied as they are instead of encoding their <code>%</code>.
+     * </p>
+     *
      * @param sourceValue
-     * @param chars
-     * @return the encoded string
-     * @throws UnsupportedEncodingException
+     * @param start
+     * @param end
+     * @param table
+     * @param keepEscapes
+     * @param out
      */
-    private static String encode(String sourceValue, BitSet chars) throws UnsupportedEncodingException
+    private static void encode(CharSequence sourceValue, int start, int end, boolean[] table, boolean keepEscapes,
+                               ExpansionSink out)
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        byte[] source = sourceValue.getBytes(Charset.forName("UTF-8"));
-        for (int i = 0; i < source.length; i++)
+        int run = start;
+        int i = start;
+        while (i < end)
         {
-            byte c = source[i];
-            // fixed unsigned problem
-            if (chars.get(c & 0xff) || c <= 0x20)
+            final char c = sourceValue.charAt(i);
+            if (c < 0x80 && !table[c])
+            {
+                i++;
+                continue;
+            }
+            if (keepEscapes && c == '%' && isEscape(sourceValue, i, end))
             {
-                out.write('%');
-                char hex1 = Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16));
-                char hex2 = Character.toUpperCase(Character.forDigit(c & 0xF, 16));
-                out.write(hex1);
-                out.write(hex2);
+                i += 3;
+                continue;
+            }
+            if (run < i)
+            {
+                out.append(sourceValue, run, i);
+            }
+            i++;
+            if (c < 0x80)
+            {
+                appendEncoded(out, c);
+            }
+            else if (c < 0x800)
+            {
+                appendEncoded(out, 0xC0 | (c >> 6));
+                appendEncoded(out, 0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(sourceValue.charAt(i)))
+            {
+                final int cp = Character.toCodePoint(c, sourceValue.charAt(i++));
+                appendEncoded(out, 0xF0 | (cp >> 18));
+                appendEncoded(out, 0x80 | ((cp >> 12) & 0x3F));
+                appendEncoded(out, 0x80 | ((cp >> 6) & 0x3F));
+                appendEncoded(out, 0x80 | (cp & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                // A lone surrogate can't be encoded as UTF-8 and is replaced with '?'
+                if (table['?'])
+                {
+                    appendEncoded(out, '?');
+                }
+                else
+                {
+                    out.append('?');
+                }
             }
             else
             {
-                out.write(c);
+                appendEncoded(out, 0xE0 | (c >> 12));
+                appendEncoded(out, 0x80 | ((c >> 6) & 0x3F));
+                appendEncoded(out, 0x80 | (c & 0x3F));
             }
+            run = i;
+        }
+        if (run < end)
+        {
+            out.append(sourceValue, run, end);
         }
-        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static void appendEncoded(ExpansionSink out, int octet)
+    {
+        out.append('%').append(HEX[(octet >> 4) & 0xF]).append(HEX[octet & 0xF]);
     }
 
 }
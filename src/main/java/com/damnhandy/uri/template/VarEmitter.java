@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.UriTemplate.Encoding;
+import com.damnhandy.uri.template.impl.Modifier;
+import com.damnhandy.uri.template.impl.Operator;
+import com.damnhandy.uri.template.impl.VarSpec;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * The compiled form of one {@link VarSpec} within its {@link Expression}. Everything the expansion
+ * of the variable needs to know about its operator and modifier is worked out once, when the
+ * template is parsed: the <code>name=</code> prefix of named operators, the separators, the form
+ * of an empty value and the encoding. Expanding a value then only appends these strings and
+ * encodes the value itself.
+ * </p>
+ * <p>
+ * A <code>null</code> prefix means that nothing is written in that position.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+final class VarEmitter implements Serializable
+{
+
+    /**
+     * The serialVersionUID
+     */
+    private static final long serialVersionUID = -2380357826581357306L;
+
+    final VarSpec varSpec;
+
+    final String name;
+
+    /**
+     * The slot of the variable in the template.
+     */
+    final int slot;
+
+    final boolean explode;
+
+    /**
+     * The maximum number of characters of the prefix modifier, or -1 if the variable has none.
+     */
+    final int maxLength;
+
+    final Encoding encoding;
+
+    /**
+     * True for the <code>{var}</code> and <code>{+var}</code> forms of RFC 6570 Level 1: no
+     * operator other than <code>+</code>, no modifier. When such a variable is alone in its
+     * expression nothing is written around its value.
+     */
+    final boolean levelOne;
+
+    /**
+     * Written before the first defined variable of the expression: the operator, except for
+     * <code>+</code>.
+     */
+    final String expressionPrefix;
+
+    /**
+     * Written between two defined variables of the expression.
+     */
+    final String expressionSeparator;
+
+    /**
+     * Written before a single value: <code>name=</code> for named operators.
+     */
+    final String valuePrefix;
+
+    /**
+     * Written instead of an empty value by the named operators that omit the <code>=</code>,
+     * such as <code>;</code>.
+     */
+    final String emptyValue;
+
+    /**
+     * Written once before the elements of a list or the pairs of a map that is not exploded.
+     */
+    final String compositePrefix;
+
+    /**
+     * Written before each element of an exploded list.
+     */
+    final String elementPrefix;
+
+    /**
+     * Written between list elements, or between the pairs of a map.
+     */
+    final String elementSeparator;
+
+    /**
+     * Written between the name and value of a map pair.
+     */
+    final char pairSeparator;
+
+    VarEmitter(Operator operator, VarSpec varSpec, int slot)
+    {
+        this.varSpec = varSpec;
+        this.name = varSpec.getVariableName();
+        this.slot = slot;
+        this.explode = varSpec.getModifier() == Modifier.EXPLODE;
+        this.maxLength = varSpec.getModifier() == Modifier.PREFIX ? varSpec.getPosition() : -1;
+        this.encoding = operator.getEncoding();
+        this.levelOne = (operator == Operator.NUL || operator == Operator.RESERVED)
+                        && varSpec.getModifier() == Modifier.NONE;
+        this.expressionPrefix = operator == Operator.RESERVED ? "" : operator.getPrefix();
+        this.expressionSeparator = operator.getSeparator();
+
+        final String namePrefix = name + '=';
+        this.valuePrefix = operator.isNamed() ? namePrefix : null;
+        this.emptyValue = operator.isNamed() && !"&".equals(operator.getSeparator()) ? varSpec.getValue() : null;
+        this.compositePrefix = !explode && operator.useVarNameWhenExploded() ? namePrefix : null;
+        this.elementPrefix = explode && operator.isNamed() && operator.useVarNameWhenExploded() ? namePrefix : null;
+        this.elementSeparator = explode ? operator.getSeparator() : operator.getListSeparator();
+        this.pairSeparator = explode ? '=' : ',';
+    }
+
+    /**
+     * Encodes a string value into the sink, preceded by the supplied prefix.
+     *
+     * @param value the value
+     * @param prefix {@link #valuePrefix}, {@link #elementPrefix} or <code>null</code>
+     * @param out the sink
+     */
+    void appendString(CharSequence value, String prefix, ExpansionSink out)
+    {
+        int end = value.length();
+        if (maxLength >= 0)
+        {
+            end = value instanceof EncodedValue ? UriUtil.prefixEnd(value, maxLength) : Math.min(end, maxLength);
+        }
+        if (end == 0 && emptyValue != null)
+        {
+            out.append(emptyValue);
+            return;
+        }
+        if (prefix != null)
+        {
+            out.append(prefix);
+        }
+
+        // Values that are already encoded are copied as they are when they are safe for the operator.
+        if (value instanceof EncodedValue)
+        {
+            if (((EncodedValue) value).isEncodedFor(encoding))
+            {
+                out.append(value, 0, end);
+            }
+            else
+            {
+                UriUtil.encodeKeepingEscapes(value, 0, end, out);
+            }
+        }
+        // If we have a {+} or {#} operator, there are items we do not need to encode.
+        else if (encoding == Encoding.UR)
+        {
+            UriUtil.encodeFragment(value, 0, end, out);
+        }
+        else
+        {
+            UriUtil.encode(value, 0, end, out);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+
+/**
+ * <p>
+ * A {@link VariableResolver} supplies the variable values of an expansion from any source, such
+ * as a request context, a bean or a JSON document, without copying them into a {@link java.util.Map}
+ * first:
+ * </p>
+ * <pre>
+ * String uri = UriTemplate.fromTemplate("/users{/id}{?fields}").expand(new VariableResolver()
+ * {
+ *     public boolean containsVariable(String name)
+ *     {
+ *         return request.getParameter(name) != null;
+ *     }
+ *
+ *     public Object resolve(String name)
+ *     {
+ *         return request.getParameter(name);
+ *     }
+ * });
+ * </pre>
+ * <p>
+ * The resolver is only asked about the variables that the template references, once per
+ * occurrence of a variable in the template, so a resolver over a large context costs no
+ * more than one over a small one. Variables for which {@link #containsVariable(String)}
+ * returns false are undefined; they are left out of a full expansion and preserved by a
+ * partial one.
+ * </p>
+ *
+ * @author <a href="ryan@damnhandy.com">Ryan J. McDonough</a>
+ * @version $Revision: 1.1 $
+ * @since 2.1.9
+ */
+public interface VariableResolver
+{
+
+    /**
+     * Returns true if the variable has a value, even if that value is <code>null</code>.
+     *
+     * @param name the variable name
+     * @return true if the variable is defined
+     */
+    boolean containsVariable(String name);
+
+    /**
+     * Returns the value of the variable. Only called when {@link #containsVariable(String)}
+     * returned true for the same name.
+     *
+     * @param name the variable name
+     * @return the value, which may be any type accepted by {@link UriTemplate#set(String, Object)}
+     */
+    Object resolve(String name);
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures {@link AccessLogClassifier#classify(Path, ForkJoinPool)} on a synthetic Combined Log
+ * Format file routed through a few hundred templates. The size of the log defaults to 256 MB; set
+ * <code>-Dlog.size.mb=4096</code> for a multi-GB run. This is not a unit test and is not run by
+ * the build. Run it from the IDE, or with:
+ * </p>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.damnhandy.uri.template.AccessLogClassifierBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AccessLogClassifierBenchmark
+{
+    private static final int RESOURCES = 100;
+
+    private Path log;
+
+    private ForkJoinPool pool;
+
+    private AccessLogClassifier classifier;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        pool = new ForkJoinPool();
+        UriTemplateRouter.Builder<String> builder = UriTemplateRouter.builder();
+        for (int i = 0; i < RESOURCES; i++)
+        {
+            builder.add("/api/v1/resource" + i + "{?page,size}", "list");
+            builder.add("/api/v1/resource" + i + "/{id}", "show");
+            builder.add("/api/v1/resource" + i + "/{id}/items{/item}{?fields}", "items");
+        }
+        classifier = new AccessLogClassifier(builder.build()).withLatencyField(-1);
+
+        long size = Long.getLong("log.size.mb", 256) << 20;
+        log = Files.createTempFile("access", ".log");
+        Random random = new Random(42);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(log), 1 << 16))
+        {
+            long written = 0;
+            while (written < size)
+            {
+                int resource = random.nextInt(RESOURCES);
+                String uri;
+                switch (random.nextInt(4))
+                {
+                    case 0:
+                        uri = "/api/v1/resource" + resource + "?page=" + random.nextInt(50) + "&size=20";
+                        break;
+                    case 1:
+                        uri = "/api/v1/resource" + resource + "/" + random.nextInt(1000000);
+                        break;
+                    case 2:
+                        uri = "/api/v1/resource" + resource + "/" + random.nextInt(1000000) + "/items/"
+                              + random.nextInt(100) + "?fields=name,price&utm_source=mail";
+                        break;
+                    default:
+                        uri = "/static/img/" + random.nextInt(1000) + ".png";
+                }
+                byte[] line = ("10.0.0." + random.nextInt(256) + " - - [10/Oct/2024:13:55:36 +0000] \"GET " + uri
+                               + " HTTP/1.1\" 200 " + random.nextInt(10000) + " \"-\" \"Mozilla/5.0\" "
+                               + random.nextInt(500) + "\n").getBytes(StandardCharsets.US_ASCII);
+                out.write(line);
+                written += line.length;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        pool.shutdown();
+        Files.deleteIfExists(log);
+    }
+
+    @Benchmark
+    public AccessLogClassifier.Report classify() throws IOException
+    {
+        return classifier.classify(log, pool);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AccessLogClassifierBenchmark.class.getSimpleName()).build()).run();
+    }
+}
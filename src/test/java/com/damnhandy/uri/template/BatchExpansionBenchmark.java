@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Compares {@link UriTemplate#expandAll(Iterable, ExpansionHandler)} and its parallel variant
+ * {@link UriTemplate#expandAll(java.util.Collection, ForkJoinPool)} against a loop of
+ * {@link UriTemplate#expand(Map)} calls over the same rows. This is not a unit test and is not run
+ * by the build. Run it from the IDE, or with:
+ * </p>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.damnhandy.uri.template.BatchExpansionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchExpansionBenchmark
+{
+    private static final int ROWS = 10000;
+
+    private UriTemplate template;
+
+    private List<Map<String, Object>> rows;
+
+    private List<Object[]> slotRows;
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp()
+    {
+        pool = new ForkJoinPool();
+        template = UriTemplate.fromTemplate("https://shop.example.com/products{/category,id}{?tags*,page}");
+        rows = new ArrayList<Map<String, Object>>(ROWS);
+        slotRows = new ArrayList<Object[]>(ROWS);
+        for (int i = 0; i < ROWS; i++)
+        {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("category", "garden tools");
+            row.put("id", i);
+            row.put("tags", Arrays.asList("sale", "tag " + i));
+            row.put("page", i % 10);
+            rows.add(row);
+
+            Object[] slots = new Object[template.getVariables().length];
+            for (Map.Entry<String, Object> e : row.entrySet())
+            {
+                slots[template.slotOf(e.getKey())] = e.getValue();
+            }
+            slotRows.add(slots);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void expandLoop(Blackhole bh)
+    {
+        for (Map<String, Object> row : rows)
+        {
+            bh.consume(template.expand(row));
+        }
+    }
+
+    @Benchmark
+    public void expandAllMaps(final Blackhole bh) throws IOException
+    {
+        template.expandAll(rows, new ExpansionHandler()
+        {
+            @Override
+            public void expanded(int index, CharSequence uri)
+            {
+                bh.consume(uri.length());
+            }
+        });
+    }
+
+    @Benchmark
+    public void expandAllSlots(final Blackhole bh) throws IOException
+    {
+        template.expandAll(slotRows, new ExpansionHandler()
+        {
+            @Override
+            public void expanded(int index, CharSequence uri)
+            {
+                bh.consume(uri.length());
+            }
+        });
+    }
+
+    @Benchmark
+    public List<String> expandAllParallel()
+    {
+        return template.expandAll(rows, pool);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(BatchExpansionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures the fast path for <code>{var}</code> and <code>{+var}</code> expressions by expanding
+ * the same Level 1 template with the fast path turned on and off. With it off, the expressions go
+ * through the generic path that every other expression takes. This is not a unit test and is not
+ * run by the build. Run it from the IDE, or with:
+ * </p>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.damnhandy.uri.template.LevelOneExpansionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelOneExpansionBenchmark
+{
+    @Param({"true", "false"})
+    private boolean fastPath;
+
+    private UriTemplate template;
+
+    private Map<String, Object> values;
+
+    @Setup
+    public void setUp()
+    {
+        template = UriTemplate.fromTemplate("https://api.example.com/users/{user}/repos/{repo}/contents/{+path}");
+        values = new HashMap<String, Object>();
+        values.put("user", "damnhandy");
+        values.put("repo", "Handy-URI-Templates");
+        values.put("path", "src/main/java/com/damnhandy/uri/template/UriTemplate.java");
+        UriTemplate.levelOneFastPath = fastPath;
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        UriTemplate.levelOneFastPath = true;
+    }
+
+    @Benchmark
+    public String expand()
+    {
+        return template.expand(values);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(LevelOneExpansionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for {@link AccessLogClassifier}.
+ */
+public class TestAccessLogClassifier
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ForkJoinPool pool;
+
+    private UriTemplateRouter<String> router;
+
+    @Before
+    public void setUp()
+    {
+        pool = new ForkJoinPool(4);
+        router = UriTemplateRouter.<String>builder()
+            .add("/users/{id}", "user")
+            .add("/users/{id}/repos{?page}", "repos")
+            .add("/search{?q}", "search")
+            .build();
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    private static String line(String uri, int latency)
+    {
+        return "127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET " + uri + " HTTP/1.1\" 200 2326 " + latency;
+    }
+
+    @Test
+    public void testClassifiesLargeLog() throws Exception
+    {
+        // Large enough for the work to be split across the workers
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+        {
+            log.append(line("/users/" + i, 10)).append('\n');
+            log.append(line("/users/" + i + "/repos?page=" + i % 5 + "&utm_source=mail", 20 + i % 3)).append("\r\n");
+            if (i % 4 == 0)
+            {
+                log.append(line("/search?q=x", 5)).append('\n');
+                log.append(line("/unknown/" + i, 1)).append('\n');
+            }
+        }
+        Path file = folder.newFile("access.log").toPath();
+        Files.write(file, log.toString().getBytes(StandardCharsets.UTF_8));
+
+        AccessLogClassifier.Report report = new AccessLogClassifier(router).withLatencyField(-1).classify(file, pool);
+        Assert.assertEquals(50000, report.getLines());
+        Assert.assertEquals(5000, report.getUnmatched());
+
+        Map<String, AccessLogClassifier.Statistics> statistics = report.getStatistics();
+        Assert.assertEquals(Arrays.asList("/users/{id}", "/users/{id}/repos{?page}", "/search{?q}"),
+                            new ArrayList<String>(statistics.keySet()));
+        AccessLogClassifier.Statistics repos = statistics.get("/users/{id}/repos{?page}");
+        Assert.assertEquals(20000, repos.getCount());
+        Assert.assertEquals(20000, repos.getLatencyCount());
+        Assert.assertEquals(20.0, repos.getMinLatency(), 0.0);
+        Assert.assertEquals(22.0, repos.getMaxLatency(), 0.0);
+        Assert.assertEquals(10.0, statistics.get("/users/{id}").getMeanLatency(), 0.0);
+        Assert.assertEquals(5000, statistics.get("/search{?q}").getCount());
+    }
+
+    @Test
+    public void testFieldsAndPolicy() throws Exception
+    {
+        String log = "/users/1 0.250\n"
+                     + "/users/2 0.750\n"
+                     + "/search?q=a&utm=x -\n"
+                     + "\n"
+                     + "/search?q=b\n";
+        ByteBuffer buffer = ByteBuffer.wrap(log.getBytes(StandardCharsets.US_ASCII));
+
+        AccessLogClassifier classifier = new AccessLogClassifier(router).withUriField(0).withLatencyField(1);
+        AccessLogClassifier.Report report = classifier.classify(buffer, pool);
+        Assert.assertEquals(4, report.getLines());
+        Assert.assertEquals(0, report.getUnmatched());
+        AccessLogClassifier.Statistics users = report.getStatistics().get("/users/{id}");
+        Assert.assertEquals(2, users.getCount());
+        Assert.assertEquals(0.5, users.getMeanLatency(), 1e-9);
+        AccessLogClassifier.Statistics search = report.getStatistics().get("/search{?q}");
+        Assert.assertEquals(2, search.getCount());
+        Assert.assertEquals(0, search.getLatencyCount());
+        Assert.assertTrue(Double.isNaN(search.getMeanLatency()));
+
+        report = classifier.withUnknownParameters(UriTemplateMatch.UnknownParameters.REJECT).classify(buffer, pool);
+        Assert.assertEquals(1, report.getUnmatched());
+    }
+
+    @Test
+    public void testParseLatency() throws Exception
+    {
+        for (String[] c : new String[][] {{"125", "125.0"}, {"0.125", "0.125"}, {"3.", "NaN"}, {"-1", "NaN"},
+                                          {"", "NaN"}, {"1.2.3", "NaN"}, {"12ms", "NaN"}})
+        {
+            ByteBuffer b = ByteBuffer.wrap(c[0].getBytes(StandardCharsets.US_ASCII));
+            Assert.assertEquals(c[0], Double.valueOf(c[1]), Double.valueOf(AccessLogClassifier.parseLatency(b, 0, b.limit())));
+        }
+    }
+
+    @Test
+    public void testPrint() throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.wrap((line("/users/1", 4) + "\n" + line("/nope", 1) + "\n")
+                                                .getBytes(StandardCharsets.US_ASCII));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AccessLogClassifier(router).withLatencyField(-1).classify(buffer, pool)
+                                       .print(new PrintStream(out, true, "UTF-8"));
+        Assert.assertEquals("requests\tshare\tmean\tmin\tmax\ttemplate\n"
+                            + "1\t50.00%\t4.000\t4.000\t4.000\t/users/{id}\n"
+                            + "1\t50.00%\t\t\t\t(unmatched)\n",
+                            new String(out.toByteArray(), "UTF-8").replace(System.getProperty("line.separator"), "\n"));
+    }
+}
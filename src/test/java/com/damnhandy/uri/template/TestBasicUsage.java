@@ -193,6 +193,40 @@ public class TestBasicUsage
         assertThat(actual, equalTo("http://localhost/thing?things=1,2,3"));
     }
 
+    /**
+     * Values containing regex replacement characters must be copied verbatim.
+     */
+    @Test
+    public void testReservedValueWithDollarAndBackslash() throws Exception
+    {
+        String actual = UriTemplate.fromTemplate("/redirect{+to}")
+                                   .set("to", "/$1/$foo")
+                                   .expand();
+        assertThat(actual, equalTo("/redirect/$1/$foo"));
+    }
+
+    /**
+     * A value that looks like another expression in the template must not be expanded again.
+     */
+    @Test
+    public void testValueThatLooksLikeAnExpression() throws Exception
+    {
+        String actual = UriTemplate.fromTemplate("{+first}/{second}")
+                                   .set("first", "{second}")
+                                   .set("second", "two")
+                                   .expand();
+        assertThat(actual, equalTo("%7Bsecond%7D/two"));
+    }
+
+    @Test
+    public void testRepeatedExpression() throws Exception
+    {
+        String actual = UriTemplate.fromTemplate("{/id}/children{/id}")
+                                   .set("id", 42)
+                                   .expand();
+        assertThat(actual, equalTo("/42/children/42"));
+    }
+
 
     //@Test
     public void testRegEx() throws Exception
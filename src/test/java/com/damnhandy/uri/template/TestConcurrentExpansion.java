@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expands a single shared {@link UriTemplate} from many threads at once, each thread
+ * binding its own variables on every call.
+ */
+public class TestConcurrentExpansion
+{
+    private static final UriTemplate SHARED =
+        UriTemplate.fromTemplate("https://api.example.com{/owner,repo}/issues{?state,labels,page}{#section}");
+
+    private static final int THREADS = 16;
+
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void testSharedTemplateExpandedConcurrently() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < THREADS; t++)
+            {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        start.await();
+                        int expanded = 0;
+                        for (int i = 0; i < ITERATIONS; i++)
+                        {
+                            Map<String, Object> vars = new LinkedHashMap<String, Object>();
+                            vars.put("owner", "owner" + thread);
+                            vars.put("repo", "repo " + i);
+                            vars.put("labels", Arrays.asList("bug", "t" + thread));
+                            vars.put("page", i);
+                            if (i % 2 == 0)
+                            {
+                                vars.put("section", "top");
+                            }
+                            String expected = "https://api.example.com/owner" + thread + "/repo%20" + i
+                                              + "/issues?labels=bug,t" + thread + "&page=" + i
+                                              + (i % 2 == 0 ? "#top" : "");
+                            Assert.assertEquals(expected, SHARED.expand(vars));
+                            expanded++;
+                        }
+                        return expanded;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results)
+            {
+                Assert.assertEquals(Integer.valueOf(ITERATIONS), result.get(60, TimeUnit.SECONDS));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        Assert.assertTrue(SHARED.getValues().isEmpty());
+    }
+
+    @Test
+    public void testExpandWithMapDoesNotBindValues() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("/things{/id}{?q}").set("q", "fromSet");
+        Map<String, Object> vars = new LinkedHashMap<String, Object>();
+        vars.put("id", 1);
+        Assert.assertEquals("/things/1", template.expand(vars));
+        Assert.assertEquals("/things?q=fromSet", template.expand());
+        Assert.assertFalse(template.hasVariable("id"));
+        Assert.assertEquals("/things/1{?q}", template.expandPartial(vars));
+    }
+
+    @Test
+    public void testBuilderChangesAreNotVisibleToBuiltTemplate() throws Exception
+    {
+        UriTemplateBuilder builder = UriTemplate.buildFromTemplate("http://example.com").path("id");
+        UriTemplate template = builder.build();
+        builder.query("q");
+        Assert.assertEquals("http://example.com{/id}", template.getTemplate());
+        Assert.assertEquals(1, template.expressionCount());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.UriTemplate.Encoding;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link EncodedValue}.
+ */
+public class TestEncodedValue
+{
+    @Test
+    public void testUnreservedValueIsCopied() throws Exception
+    {
+        EncodedValue token = EncodedValue.of("eyJhbGciOi.J9-_~%2B%2F", Encoding.U);
+        Assert.assertEquals("/download?token=eyJhbGciOi.J9-_~%2B%2F",
+                            UriTemplate.fromTemplate("/download{?token}").set("token", token).expand());
+        Assert.assertEquals("/download/eyJhbGciOi.J9-_~%2B%2F",
+                            UriTemplate.fromTemplate("/download/{+token}").set("token", token).expand());
+    }
+
+    @Test
+    public void testReservedValue() throws Exception
+    {
+        EncodedValue next = EncodedValue.of("https://example.com/a%20b?c=d", Encoding.UR);
+        Assert.assertEquals("/redirect#https://example.com/a%20b?c=d",
+                            UriTemplate.fromTemplate("/redirect{#next}").set("next", next).expand());
+        Assert.assertEquals("/login?next=https%3A%2F%2Fexample.com%2Fa%20b%3Fc%3Dd",
+                            UriTemplate.fromTemplate("/login{?next}").set("next", next).expand());
+    }
+
+    @Test
+    public void testPrefixCountsDecodedCharacters() throws Exception
+    {
+        // An escape is one character, as it is in the decoded value
+        EncodedValue value = EncodedValue.of("ab%2Fcd", Encoding.U);
+        Assert.assertEquals("/ab", UriTemplate.fromTemplate("{/v:2}").set("v", value).expand());
+        Assert.assertEquals("/ab%2F", UriTemplate.fromTemplate("{/v:3}").set("v", value).expand());
+        Assert.assertEquals("/ab%2Fc", UriTemplate.fromTemplate("{/v:4}").set("v", value).expand());
+        Assert.assertEquals("/ab%2Fcd", UriTemplate.fromTemplate("{/v:9}").set("v", value).expand());
+        Assert.assertEquals("%41ab", UriTemplate.fromTemplate("{t:3}").set("t", EncodedValue.of("%41abc", Encoding.U))
+                                                 .expand());
+    }
+
+    @Test
+    public void testPrefixKeepsMultiByteCharacters() throws Exception
+    {
+        // The two escapes of é are one character
+        Assert.assertEquals("%C3%A9ab", UriTemplate.fromTemplate("{t:3}")
+                                                   .set("t", EncodedValue.of("%C3%A9abc", Encoding.U)).expand());
+        Assert.assertEquals("%C3%A9", UriTemplate.fromTemplate("{t:1}")
+                                                 .set("t", EncodedValue.of("%C3%A9abc", Encoding.U)).expand());
+        Assert.assertEquals("%F0%9F%98%80x", UriTemplate.fromTemplate("{t:2}")
+                                                        .set("t", EncodedValue.of("%F0%9F%98%80xyz", Encoding.U))
+                                                        .expand());
+        // The prefix of the encoded value is the encoded prefix of the decoded value
+        Assert.assertEquals(UriTemplate.fromTemplate("{t:3}").set("t", "\u00e9ab\u00e7").expand(),
+                            UriTemplate.fromTemplate("{t:3}").set("t", EncodedValue.of("%C3%A9ab%C3%A7", Encoding.U))
+                                       .expand());
+    }
+
+    @Test
+    public void testEncodedValuesInLists() throws Exception
+    {
+        Assert.assertEquals("/ids/a%2Fb/c%20d",
+                            UriTemplate.fromTemplate("/ids{/ids*}")
+                                       .set("ids", Arrays.asList(EncodedValue.of("a%2Fb", Encoding.U), "c d"))
+                                       .expand());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnencodedValueIsRejected() throws Exception
+    {
+        EncodedValue.of("a b", Encoding.U);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBrokenEscapeIsRejected() throws Exception
+    {
+        EncodedValue.of("100%", Encoding.UR);
+    }
+
+    @Test
+    public void testTrustedValueIsNotChecked() throws Exception
+    {
+        Assert.assertEquals("/a b", UriTemplate.fromTemplate("{/v}")
+                                               .set("v", EncodedValue.trusted("a b", Encoding.U)).expand());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link UriTemplate#expandAll(Iterable, ExpansionHandler)}.
+ */
+public class TestExpandAll
+{
+    private static final UriTemplate TEMPLATE = UriTemplate.fromTemplate("/products{/category,id}{?tags*}");
+
+    private static class Collector implements ExpansionHandler
+    {
+        private final List<String> uris = new ArrayList<String>();
+
+        @Override
+        public void expanded(int index, CharSequence uri)
+        {
+            Assert.assertEquals(uris.size(), index);
+            uris.add(uri.toString());
+        }
+    }
+
+    private static Map<String, Object> row(String category, int id, String... tags)
+    {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("category", category);
+        row.put("id", id);
+        row.put("tags", Arrays.asList(tags));
+        return row;
+    }
+
+    @Test
+    public void testRowsMatchExpand() throws Exception
+    {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 50; i++)
+        {
+            rows.add(row(i % 2 == 0 ? "garden tools" : "kitchen", i, "sale", "tag " + i));
+        }
+        Collector collector = new Collector();
+        Assert.assertEquals(rows.size(), TEMPLATE.expandAll(rows, collector));
+        Assert.assertEquals(rows.size(), collector.uris.size());
+        for (int i = 0; i < rows.size(); i++)
+        {
+            Assert.assertEquals(TEMPLATE.expand(rows.get(i)), collector.uris.get(i));
+        }
+    }
+
+    @Test
+    public void testMixedRowTypes() throws Exception
+    {
+        Object[] slots = new Object[TEMPLATE.getVariables().length];
+        slots[TEMPLATE.slotOf("category")] = "books";
+        slots[TEMPLATE.slotOf("id")] = 7;
+        VariableResolver resolver = new VariableResolver()
+        {
+            @Override
+            public boolean containsVariable(String name)
+            {
+                return "id".equals(name);
+            }
+
+            @Override
+            public Object resolve(String name)
+            {
+                return 9;
+            }
+        };
+        Collector collector = new Collector();
+        TEMPLATE.expandAll(Arrays.asList(row("music", 1, "new"), slots, resolver, null), collector);
+        Assert.assertEquals(Arrays.asList("/products/music/1?tags=new", "/products/books/7", "/products/9", "/products"),
+                            collector.uris);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedRowType() throws Exception
+    {
+        TEMPLATE.expandAll(Arrays.asList("not a row"), new Collector());
+    }
+
+    @Test(expected = IOException.class)
+    public void testHandlerExceptionIsPropagated() throws Exception
+    {
+        TEMPLATE.expandAll(Arrays.asList(row("music", 1)), new ExpansionHandler()
+        {
+            @Override
+            public void expanded(int index, CharSequence uri) throws IOException
+            {
+                throw new IOException("disk full");
+            }
+        });
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for expanding a template into a caller supplied buffer.
+ */
+public class TestExpandTo
+{
+    private static final String TEMPLATE = "http://example.com{/owner,repo}/issues{?labels*,page}";
+
+    private static Map<String, Object> vars()
+    {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("owner", "damnhandy");
+        vars.put("repo", "Handy URI Templates");
+        vars.put("labels", Arrays.asList("bug", "help wanted"));
+        vars.put("page", 2);
+        return vars;
+    }
+
+    private static final String EXPECTED =
+        "http://example.com/damnhandy/Handy%20URI%20Templates/issues?labels=bug&labels=help%20wanted&page=2";
+
+    @Test
+    public void testExpandToStringBuilder() throws Exception
+    {
+        StringBuilder b = new StringBuilder("GET ");
+        StringBuilder result = UriTemplate.fromTemplate(TEMPLATE).expandTo(vars(), b).append(" HTTP/1.1");
+        Assert.assertSame(b, result);
+        Assert.assertEquals("GET " + EXPECTED + " HTTP/1.1", b.toString());
+    }
+
+    @Test
+    public void testExpandToStringBuilderWithSetValues() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate(TEMPLATE).set(vars());
+        Assert.assertEquals(template.expand(), template.expandTo(new StringBuilder()).toString());
+    }
+
+    @Test
+    public void testExpandToAppendable() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        writer.append('[');
+        UriTemplate.fromTemplate(TEMPLATE).expandTo(vars(), (Appendable) writer).append(']');
+        Assert.assertEquals("[" + EXPECTED + "]", writer.toString());
+    }
+
+    @Test
+    public void testExpandToMatchesExpand() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("{+base}{;x,y,empty}{.list}{#keys*}");
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("base", "http://example.com/home/");
+        vars.put("x", 1024);
+        vars.put("y", 768);
+        vars.put("empty", "");
+        vars.put("list", new String[] {"red", "green"});
+        Map<String, Object> keys = new HashMap<String, Object>();
+        keys.put("semi", ";");
+        vars.put("keys", keys);
+        Assert.assertEquals(template.expand(vars), template.expandTo(vars, new StringBuilder()).toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testIOExceptionIsPropagated() throws Exception
+    {
+        Appendable failing = new Appendable()
+        {
+            @Override
+            public Appendable append(CharSequence csq) throws IOException
+            {
+                throw new IOException("closed");
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) throws IOException
+            {
+                throw new IOException("closed");
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException
+            {
+                throw new IOException("closed");
+            }
+        };
+        UriTemplate.fromTemplate(TEMPLATE).expandTo(vars(), failing);
+    }
+
+    @Test
+    public void testCharSequenceValues() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("/search{?q,id:3}{#section}");
+        StringBuilder query = new StringBuilder("ignored prefix: gr\u00fc\u00dfe \uD83D\uDE00");
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("q", query.subSequence(16, query.length()));
+        vars.put("id", new StringBuilder("abcdef"));
+        vars.put("section", new StringBuilder("a%20b c"));
+        Assert.assertEquals("/search?q=gr%C3%BC%C3%9Fe%20%F0%9F%98%80&id=abc#a%20b%20c", template.expand(vars));
+    }
+
+    @Test
+    public void testLongValue() throws Exception
+    {
+        StringBuilder query = new StringBuilder();
+        StringBuilder expected = new StringBuilder("/search?q=");
+        for (int i = 0; i < 2000; i++)
+        {
+            query.append("caf\u00e9 ");
+            expected.append("caf%C3%A9%20");
+        }
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("q", query);
+        Assert.assertEquals(expected.toString(), UriTemplate.fromTemplate("/search{?q}").expand(vars));
+    }
+}
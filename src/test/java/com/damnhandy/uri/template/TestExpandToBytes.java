@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for expanding a template into a {@link ByteBuffer} or an {@link java.io.OutputStream}.
+ */
+public class TestExpandToBytes
+{
+    private static final UriTemplate TEMPLATE = UriTemplate.fromTemplate("/search{?q,lang,tags}{#frag}");
+
+    private static Map<String, Object> vars()
+    {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("q", "grüße aus Köln");
+        vars.put("lang", "de");
+        vars.put("tags", Arrays.asList("a b", "c"));
+        vars.put("frag", "top%20section");
+        return vars;
+    }
+
+    private static byte[] expected(UriTemplate template, Map<String, Object> vars)
+    {
+        return template.expand(vars).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] written(ByteBuffer buffer)
+    {
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testHeapByteBuffer() throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(TEMPLATE.requiredCapacity(vars()));
+        int written = TEMPLATE.expandTo(vars(), buffer);
+        Assert.assertEquals(0, buffer.remaining());
+        Assert.assertEquals(expected(TEMPLATE, vars()).length, written);
+        Assert.assertArrayEquals(expected(TEMPLATE, vars()), written(buffer));
+    }
+
+    @Test
+    public void testDirectByteBufferAppendsAtPosition() throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        buffer.put("GET ".getBytes(StandardCharsets.US_ASCII));
+        TEMPLATE.expandTo(vars(), buffer);
+        byte[] prefix = "GET ".getBytes(StandardCharsets.US_ASCII);
+        byte[] uri = expected(TEMPLATE, vars());
+        byte[] all = Arrays.copyOf(prefix, prefix.length + uri.length);
+        System.arraycopy(uri, 0, all, prefix.length, uri.length);
+        Assert.assertArrayEquals(all, written(buffer));
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testBufferTooSmall() throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(TEMPLATE.requiredCapacity(vars()) - 1);
+        TEMPLATE.expandTo(vars(), buffer);
+    }
+
+    @Test
+    public void testRequiredCapacityRejectsSingleUseValues() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("/items{/ids*}");
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("ids", Arrays.asList("a", "b").iterator());
+        try
+        {
+            template.requiredCapacity(vars);
+            Assert.fail("Expected a VariableExpansionException");
+        }
+        catch (VariableExpansionException e)
+        {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("ids"));
+        }
+        // The iterator was not touched, and a collection can be counted and then written
+        Assert.assertEquals("/items/a/b", template.expand(vars));
+        vars.put("ids", Arrays.asList("a", "b"));
+        ByteBuffer buffer = ByteBuffer.allocate(template.requiredCapacity(vars));
+        template.expandTo(vars, buffer);
+        Assert.assertArrayEquals("/items/a/b".getBytes(StandardCharsets.US_ASCII), written(buffer));
+    }
+
+    @Test
+    public void testOutputStream() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<String, Object> vars = vars();
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+        {
+            longValue.append("x y ");
+        }
+        vars.put("q", longValue.toString());
+        int written = TEMPLATE.expandTo(vars, out);
+        Assert.assertArrayEquals(expected(TEMPLATE, vars), out.toByteArray());
+        Assert.assertEquals(out.size(), written);
+        Assert.assertEquals(out.size(), TEMPLATE.requiredCapacity(vars));
+    }
+
+    @Test
+    public void testNonAsciiLiteralIsWrittenAsUtf8() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("/café{/id}");
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("id", 7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.expandTo(vars, out);
+        Assert.assertArrayEquals("/café/7".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+        Assert.assertEquals(out.size(), template.requiredCapacity(vars));
+    }
+}
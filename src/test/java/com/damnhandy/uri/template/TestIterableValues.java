@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link Iterable}, {@link Iterator} and stream values.
+ */
+public class TestIterableValues
+{
+    private static final String[] TEMPLATES =
+    {"{v}", "{v*}", "{+v}", "{#v*}", "{.v}", "{/v*}", "{;v}", "{;v*}", "{?v}", "{?v*}", "{&v}"};
+
+    /**
+     * An Iterable that is not a Collection, such as a database cursor.
+     */
+    private static Iterable<Object> iterable(final List<?> elements)
+    {
+        return new Iterable<Object>()
+        {
+            @Override
+            public Iterator<Object> iterator()
+            {
+                return new Iterator<Object>()
+                {
+                    private final Iterator<?> it = elements.iterator();
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Object next()
+                    {
+                        return it.next();
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * An endless sequence 0, 1, 2, ... that counts the elements pulled from it.
+     */
+    private static Iterator<Object> sequence(final AtomicInteger pulled)
+    {
+        return new Iterator<Object>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return true;
+            }
+
+            @Override
+            public Object next()
+            {
+                return pulled.getAndIncrement();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void testIterableExpandsLikeList() throws Exception
+    {
+        List<?> elements = Arrays.asList("red", "green blue", 7, "a/b");
+        for (String template : TEMPLATES)
+        {
+            Assert.assertEquals(template, UriTemplate.fromTemplate(template).set("v", elements).expand(),
+                                UriTemplate.fromTemplate(template).set("v", iterable(elements)).expand());
+            Assert.assertEquals(template, UriTemplate.fromTemplate(template).set("v", elements).expand(),
+                                UriTemplate.fromTemplate(template).set("v", elements.iterator()).expand());
+        }
+    }
+
+    @Test
+    public void testEmptyIterableIsUndefined() throws Exception
+    {
+        Assert.assertEquals("/items?page=2",
+                            UriTemplate.fromTemplate("/items{?ids*,page}")
+                                       .set("ids", iterable(Collections.emptyList()))
+                                       .set("page", 2)
+                                       .expand());
+        Assert.assertEquals("/items", UriTemplate.fromTemplate("/items{/ids*}")
+                                                 .set("ids", Collections.emptyList().iterator()).expand());
+    }
+
+    @Test
+    public void testIteratorIsConsumedOnce() throws Exception
+    {
+        Assert.assertEquals("/a/b", UriTemplate.fromTemplate("{/v*}{?v}")
+                                               .set("v", Arrays.asList("a", "b").iterator()).expand());
+        Assert.assertEquals("/a/b?v=a,b", UriTemplate.fromTemplate("{/v*}{?v}")
+                                                     .set("v", iterable(Arrays.asList("a", "b"))).expand());
+    }
+
+    @Test
+    public void testStream() throws Exception
+    {
+        Object stream;
+        try
+        {
+            stream = Class.forName("java.util.stream.Stream").getMethod("of", Object[].class)
+                          .invoke(null, (Object) new Object[] {"x y", 1L, "z"});
+        }
+        catch (ClassNotFoundException e)
+        {
+            stream = null;
+        }
+        Assume.assumeNotNull(stream);
+        Assert.assertEquals("?ids=x%20y&ids=1&ids=z",
+                            UriTemplate.fromTemplate("{?ids*}").set("ids", stream).expand());
+    }
+
+    @Test
+    public void testMaximumListSize() throws Exception
+    {
+        UriTemplate unlimited = UriTemplate.fromTemplate("/items{?ids}").set("ids", Arrays.asList(1, 2, 3, 4));
+        UriTemplate template = unlimited.withMaximumListSize(3);
+        Assert.assertEquals(3, template.getMaximumListSize());
+        // The limit is set on a copy, which keeps the values and the other limit
+        Assert.assertEquals(Integer.MAX_VALUE, unlimited.getMaximumListSize());
+        Assert.assertEquals("/items?ids=1,2,3,4", unlimited.expand());
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4), template.get("ids"));
+        Assert.assertEquals(40, unlimited.withMaximumLength(40).withMaximumListSize(3).getMaximumLength());
+        Assert.assertEquals("/items?ids=1,2,3", template.set("ids", Arrays.asList(1, 2, 3)).expand());
+        Assert.assertEquals("/items?ids=1,2,3", template.set("ids", new int[] {1, 2, 3}).expand());
+        for (Object tooLong : new Object[] {Arrays.asList(1, 2, 3, 4), new int[] {1, 2, 3, 4},
+                                            iterable(Arrays.asList(1, 2, 3, 4))})
+        {
+            try
+            {
+                template.set("ids", tooLong).expand();
+                Assert.fail("Expected a VariableExpansionException");
+            }
+            catch (VariableExpansionException e)
+            {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("ids"));
+            }
+        }
+        Assert.assertEquals(Integer.MAX_VALUE, UriTemplate.fromTemplate("{?ids}").getMaximumListSize());
+    }
+
+    @Test
+    public void testMaximumListSizeStopsUnboundedSequence() throws Exception
+    {
+        AtomicInteger pulled = new AtomicInteger();
+        try
+        {
+            UriTemplate.fromTemplate("{/seq*}").withMaximumListSize(100).set("seq", sequence(pulled)).expand();
+            Assert.fail("Expected a VariableExpansionException");
+        }
+        catch (VariableExpansionException e)
+        {
+            Assert.assertEquals(100, pulled.get());
+        }
+    }
+
+    @Test(expected = VariableExpansionException.class)
+    public void testPrefixOnIterable() throws Exception
+    {
+        UriTemplate.fromTemplate("{v:2}").set("v", iterable(Arrays.asList("abc"))).expand();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaximumListSize() throws Exception
+    {
+        UriTemplate.fromTemplate("{v}").withMaximumListSize(-1);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for lazy {@link Callable} values.
+ */
+public class TestLazyValues
+{
+    private static Callable<Object> counting(final AtomicInteger calls, final Object value)
+    {
+        return new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                calls.incrementAndGet();
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void testOnlyReferencedValuesAreEvaluated() throws Exception
+    {
+        AtomicInteger tokenCalls = new AtomicInteger();
+        AtomicInteger unusedCalls = new AtomicInteger();
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("id", 42);
+        context.put("token", counting(tokenCalls, "s3cr3t"));
+        context.put("unused", counting(unusedCalls, "never"));
+        Assert.assertEquals("/users/42?token=s3cr3t",
+                            UriTemplate.fromTemplate("/users{/id}{?token}").expand(context));
+        Assert.assertEquals(1, tokenCalls.get());
+        Assert.assertEquals(0, unusedCalls.get());
+    }
+
+    @Test
+    public void testValueIsEvaluatedOncePerExpansion() throws Exception
+    {
+        AtomicInteger calls = new AtomicInteger();
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("ts", counting(calls, "2016-01-01"));
+        UriTemplate template = UriTemplate.fromTemplate("/log{/ts}{?ts}{#ts}");
+        Assert.assertEquals("/log/2016-01-01?ts=2016-01-01#2016-01-01", template.expand(context));
+        Assert.assertEquals(1, calls.get());
+        template.expand(context);
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testLazyCompositeAndNullValues() throws Exception
+    {
+        AtomicInteger calls = new AtomicInteger();
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("list", counting(calls, Arrays.asList("red", "green")));
+        context.put("none", counting(calls, null));
+        Assert.assertEquals("?list=red&list=green",
+                            UriTemplate.fromTemplate("{?list*,none}").expand(context));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testFailureIsReported() throws Exception
+    {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("token", new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                throw new IllegalStateException("key store unavailable");
+            }
+        });
+        try
+        {
+            UriTemplate.fromTemplate("{?token}").expand(context);
+            Assert.fail("Expected a VariableExpansionException");
+        }
+        catch (VariableExpansionException e)
+        {
+            Assert.assertTrue(e.getMessage().contains("token"));
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link UriTemplate#withMaximumLength(int)}.
+ */
+public class TestMaximumLength
+{
+    private static UriTooLongException expectTooLong(UriTemplate template, Map<String, Object> vars)
+    {
+        try
+        {
+            template.expand(vars);
+        }
+        catch (UriTooLongException e)
+        {
+            return e;
+        }
+        Assert.fail("Expected a UriTooLongException");
+        return null;
+    }
+
+    @Test
+    public void testUriAtTheLimit() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("/search{?q}").withMaximumLength(17);
+        Assert.assertEquals(17, template.getMaximumLength());
+        Assert.assertEquals("/search?q=a%20bcd", template.set("q", "a bcd").expand());
+
+        UriTooLongException e = expectTooLong(template, template.set("q", "a bcde").getValues());
+        Assert.assertEquals("q", e.getVariableName());
+        Assert.assertEquals(17, e.getMaximumLength());
+    }
+
+    @Test
+    public void testLimitIsSetOnACopy() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("/x/{id}").set("id", "12345");
+        UriTemplate limited = template.withMaximumLength(5);
+        Assert.assertNotSame(template, limited);
+        Assert.assertEquals(Integer.MAX_VALUE, template.getMaximumLength());
+        Assert.assertEquals("/x/12345", template.expand());
+        // The copy keeps the values of the template
+        Assert.assertEquals("12345", limited.get("id"));
+        Assert.assertEquals("id", expectTooLong(limited, limited.getValues()).getVariableName());
+    }
+
+    @Test
+    public void testLimitReachedInLiteral() throws Exception
+    {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("id", 12);
+        UriTooLongException e = expectTooLong(UriTemplate.fromTemplate("/users{/id}/profile").withMaximumLength(12),
+                                              vars);
+        Assert.assertNull(e.getVariableName());
+    }
+
+    @Test
+    public void testExpansionStopsEarly() throws Exception
+    {
+        final AtomicInteger pulled = new AtomicInteger();
+        final AtomicInteger evaluated = new AtomicInteger();
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("ids", new Iterator<Object>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return true;
+            }
+
+            @Override
+            public Object next()
+            {
+                return pulled.incrementAndGet();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        });
+        vars.put("token", new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                evaluated.incrementAndGet();
+                return "never";
+            }
+        });
+        UriTooLongException e = expectTooLong(UriTemplate.fromTemplate("/items{?ids*}{&token}").withMaximumLength(100),
+                                              vars);
+        Assert.assertEquals("ids", e.getVariableName());
+        Assert.assertTrue(String.valueOf(pulled.get()), pulled.get() < 20);
+        Assert.assertEquals(0, evaluated.get());
+    }
+
+    @Test
+    public void testByteBufferIsNotWrittenPastTheLimit() throws Exception
+    {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("path", Arrays.asList("aaaa", "bbbb", "cccc"));
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        try
+        {
+            UriTemplate.fromTemplate("{/path*}").withMaximumLength(11).expandTo(vars, buffer);
+            Assert.fail("Expected a UriTooLongException");
+        }
+        catch (UriTooLongException e)
+        {
+            Assert.assertEquals(11, buffer.position());
+        }
+    }
+
+    @Test
+    public void testLimitAppliesToEachRowOfABatch() throws Exception
+    {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < 3; i++)
+        {
+            rows.add(new Object[] {"abcdef"});
+        }
+        final List<String> uris = new ArrayList<String>();
+        UriTemplate.fromTemplate("/x/{id}").withMaximumLength(9).expandAll(rows, new ExpansionHandler()
+        {
+            @Override
+            public void expanded(int index, CharSequence uri) throws IOException
+            {
+                uris.add(uri.toString());
+            }
+        });
+        Assert.assertEquals(Arrays.asList("/x/abcdef", "/x/abcdef", "/x/abcdef"), uris);
+    }
+
+    @Test
+    public void testLongBatchWithoutLimit() throws Exception
+    {
+        // Every row is 1 MiB; together they are longer than Integer.MAX_VALUE characters
+        char[] value = new char[1 << 20];
+        Arrays.fill(value, 'a');
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("v", EncodedValue.trusted(new String(value), UriTemplate.Encoding.U));
+        int rows = (Integer.MAX_VALUE >> 20) + 2;
+        final AtomicInteger expanded = new AtomicInteger();
+        int count = UriTemplate.fromTemplate("{v}").expandAll(Collections.nCopies(rows, row), new ExpansionHandler()
+        {
+            @Override
+            public void expanded(int index, CharSequence uri) throws IOException
+            {
+                Assert.assertEquals(1 << 20, uri.length());
+                expanded.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(rows, count);
+        Assert.assertEquals(rows, expanded.get());
+    }
+
+    @Test
+    public void testPartialExpansionIsNotLimited() throws Exception
+    {
+        Assert.assertEquals("/users/42{?fields}",
+                            UriTemplate.fromTemplate("/users{/id}{?fields}").withMaximumLength(5)
+                                       .set("id", 42).expandPartial());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaximumLength() throws Exception
+    {
+        UriTemplate.fromTemplate("{v}").withMaximumLength(-1);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tests for expanding rows of variables on a {@link ForkJoinPool}.
+ */
+public class TestParallelExpansion
+{
+    private static final UriTemplate TEMPLATE = UriTemplate.fromTemplate("/products{/category,id}{?tags*}");
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUpPool()
+    {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDownPool()
+    {
+        pool.shutdown();
+    }
+
+    private static List<Map<String, Object>> rows(int count)
+    {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < count; i++)
+        {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("category", i % 3 == 0 ? "garden tools" : "kitchen");
+            row.put("id", i);
+            row.put("tags", Arrays.asList("sale", "tag " + i));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testOrderedResults() throws Exception
+    {
+        List<Map<String, Object>> rows = rows(10000);
+        List<String> uris = TEMPLATE.expandAll(rows, pool);
+        Assert.assertEquals(rows.size(), uris.size());
+        for (int i = 0; i < rows.size(); i++)
+        {
+            Assert.assertEquals(TEMPLATE.expand(rows.get(i)), uris.get(i));
+        }
+    }
+
+    @Test
+    public void testOrderedResultsFromLinkedList() throws Exception
+    {
+        List<Map<String, Object>> rows = new LinkedList<Map<String, Object>>(rows(500));
+        List<String> uris = TEMPLATE.expandAll(rows, pool);
+        Assert.assertEquals("/products/garden%20tools/0?tags=sale&tags=tag%200", uris.get(0));
+        Assert.assertEquals(TEMPLATE.expand(rows.get(499)), uris.get(499));
+    }
+
+    @Test
+    public void testUnorderedHandler() throws Exception
+    {
+        final List<Map<String, Object>> rows = rows(10000);
+        final AtomicReferenceArray<String> seen = new AtomicReferenceArray<String>(rows.size());
+        TEMPLATE.expandAll(rows, pool, new ExpansionHandler()
+        {
+            @Override
+            public void expanded(int index, CharSequence uri)
+            {
+                Assert.assertTrue(seen.compareAndSet(index, null, uri.toString()));
+            }
+        });
+        for (int i = 0; i < rows.size(); i++)
+        {
+            Assert.assertEquals(TEMPLATE.expand(rows.get(i)), seen.get(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testHandlerExceptionIsPropagated() throws Exception
+    {
+        TEMPLATE.expandAll(rows(1000), pool, new ExpansionHandler()
+        {
+            @Override
+            public void expanded(int index, CharSequence uri) throws IOException
+            {
+                if (index == 700)
+                {
+                    throw new IOException("disk full");
+                }
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedRowType() throws Exception
+    {
+        TEMPLATE.expandAll(Arrays.asList("not a row"), pool);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests that integral numbers, UUIDs, booleans, enums and primitive arrays expand exactly like
+ * their <code>toString()</code> form, or the list of the boxed elements.
+ */
+public class TestPlainValues
+{
+    private enum Status
+    {
+        ACTIVE,
+        ON_HOLD
+    }
+
+    private enum Label
+    {
+        FIRST_CLASS;
+
+        @Override
+        public String toString()
+        {
+            return "first class/A";
+        }
+    }
+
+    private static final String[] TEMPLATES =
+    {"{v}", "{+v}", "{#v}", "{.v}", "{/v}", "{;v}", "{?v}", "{&v}", "{v:2}", "{?v:4}", "{/v*}"};
+
+    private static void assertExpandsAsString(Object value) throws Exception
+    {
+        for (String template : TEMPLATES)
+        {
+            Assert.assertEquals(template + " " + value,
+                                UriTemplate.fromTemplate(template).set("v", value.toString()).expand(),
+                                UriTemplate.fromTemplate(template).set("v", value).expand());
+        }
+    }
+
+    @Test
+    public void testIntegralNumbers() throws Exception
+    {
+        for (long v : new long[] {0, 7, -1, 10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                                  Long.MAX_VALUE, Long.MIN_VALUE, 1000000000000000000L})
+        {
+            assertExpandsAsString(v);
+            assertExpandsAsString((int) v);
+        }
+        assertExpandsAsString((short) -300);
+        assertExpandsAsString((byte) 12);
+    }
+
+    @Test
+    public void testUuid() throws Exception
+    {
+        assertExpandsAsString(UUID.fromString("123e4567-e89b-12d3-a456-426614174000"));
+        assertExpandsAsString(new UUID(0, 0));
+        assertExpandsAsString(new UUID(-1, -1));
+        assertExpandsAsString(UUID.randomUUID());
+    }
+
+    @Test
+    public void testBoolean() throws Exception
+    {
+        assertExpandsAsString(Boolean.TRUE);
+        assertExpandsAsString(Boolean.FALSE);
+    }
+
+    @Test
+    public void testEnum() throws Exception
+    {
+        assertExpandsAsString(Status.ACTIVE);
+        assertExpandsAsString(Status.ON_HOLD);
+        assertExpandsAsString(Label.FIRST_CLASS);
+        Assert.assertEquals("/first%20class%2FA?l=first%20class%2FA#first%20class/A",
+                            UriTemplate.fromTemplate("{/l}{?l}{#l}").set("l", Label.FIRST_CLASS).expand());
+    }
+
+    @Test
+    public void testPrimitiveArrays() throws Exception
+    {
+        Object[] arrays = {new int[] {1, -2, 300}, new long[] {Long.MIN_VALUE, 0, 42}, new short[] {5},
+                           new byte[] {-1, 2}, new double[] {1.5, -0.0, 1e21}, new float[] {1.1f, 3f},
+                           new boolean[] {true, false}};
+        String[] templates = {"{v}", "{v*}", "{+v}", "{#v*}", "{.v}", "{/v*}", "{;v}", "{;v*}", "{?v}", "{?v*}", "{&v*}"};
+        for (Object array : arrays)
+        {
+            List<Object> boxed = new ArrayList<Object>();
+            for (int i = 0; i < java.lang.reflect.Array.getLength(array); i++)
+            {
+                boxed.add(java.lang.reflect.Array.get(array, i));
+            }
+            for (String template : templates)
+            {
+                Assert.assertEquals(template, UriTemplate.fromTemplate(template).set("v", boxed).expand(),
+                                    UriTemplate.fromTemplate(template).set("v", array).expand());
+            }
+        }
+        Assert.assertEquals("/items?ids=1&ids=2&ids=3",
+                            UriTemplate.fromTemplate("/items{?ids*}").set("ids", new long[] {1, 2, 3}).expand());
+        Assert.assertEquals("/items", UriTemplate.fromTemplate("/items{?ids*}").set("ids", new long[0]).expand());
+    }
+
+    @Test(expected = VariableExpansionException.class)
+    public void testPrefixOnPrimitiveArray() throws Exception
+    {
+        UriTemplate.fromTemplate("{v:2}").set("v", new int[] {1, 2}).expand();
+    }
+
+    @Test
+    public void testBoxedPrimitives() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("{?i,l,s,b,d,f,z,c}")
+                                          .set("i", 1).set("l", 2L).set("s", (short) 3).set("b", (byte) 4)
+                                          .set("d", 0.5d).set("f", 1.1f).set("z", true).set("c", 'x');
+        Assert.assertEquals("?i=1&l=2&s=3&b=4&d=0.5&f=1.1&z=true&c=x", template.expand());
+    }
+}
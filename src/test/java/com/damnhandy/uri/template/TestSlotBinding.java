@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for binding variables by slot with {@link UriTemplate#expand(Object[])}.
+ */
+public class TestSlotBinding
+{
+    private static final UriTemplate TEMPLATE =
+        UriTemplate.fromTemplate("http://example.com{/owner,repo}/issues{?labels*,page}{#owner}");
+
+    @Test
+    public void testSlotsFollowVariableOrder() throws Exception
+    {
+        String[] variables = TEMPLATE.getVariables();
+        for (int i = 0; i < variables.length; i++)
+        {
+            Assert.assertEquals(i, TEMPLATE.slotOf(variables[i]));
+        }
+        Assert.assertEquals(0, TEMPLATE.slotOf("owner"));
+        Assert.assertEquals(3, TEMPLATE.slotOf("page"));
+        Assert.assertEquals(-1, TEMPLATE.slotOf("missing"));
+    }
+
+    @Test
+    public void testExpandMatchesMap() throws Exception
+    {
+        Object[] slots = new Object[TEMPLATE.getVariables().length];
+        slots[TEMPLATE.slotOf("owner")] = "damnhandy";
+        slots[TEMPLATE.slotOf("repo")] = "Handy URI Templates";
+        slots[TEMPLATE.slotOf("labels")] = Arrays.asList("bug", "help wanted");
+        slots[TEMPLATE.slotOf("page")] = 2;
+
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("owner", "damnhandy");
+        vars.put("repo", "Handy URI Templates");
+        vars.put("labels", Arrays.asList("bug", "help wanted"));
+        vars.put("page", 2);
+
+        Assert.assertEquals(TEMPLATE.expand(vars), TEMPLATE.expand(slots));
+        Assert.assertEquals("x" + TEMPLATE.expand(vars),
+                            TEMPLATE.expandTo(slots, new StringBuilder("x")).toString());
+    }
+
+    @Test
+    public void testUnboundSlots() throws Exception
+    {
+        Object[] slots = new Object[1];
+        slots[TEMPLATE.slotOf("owner")] = "damnhandy";
+        Assert.assertEquals("http://example.com/damnhandy/issues#damnhandy", TEMPLATE.expand(slots));
+        Assert.assertEquals("http://example.com/issues", TEMPLATE.expand((Object[]) null));
+    }
+}
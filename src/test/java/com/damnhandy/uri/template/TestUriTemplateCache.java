@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the {@link UriTemplateCache}.
+ */
+public class TestUriTemplateCache
+{
+    @After
+    public void tearDown()
+    {
+        UriTemplate.setTemplateCache(null);
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception
+    {
+        UriTemplateCache cache = new UriTemplateCache(10);
+        UriTemplate first = cache.get("/users{/id}");
+        UriTemplate second = cache.get("/users{/id}");
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception
+    {
+        UriTemplateCache cache = new UriTemplateCache(2);
+        UriTemplate a = cache.shared("/a{/id}");
+        cache.get("/b{/id}");
+        cache.shared("/a{/id}");
+        cache.shared("/c{/id}");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertSame(a, cache.shared("/a{/id}"));
+        long misses = cache.getMissCount();
+        cache.get("/b{/id}");
+        Assert.assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void testUsedTemplatesGetASecondChance() throws Exception
+    {
+        UriTemplateCache cache = new UriTemplateCache(3);
+        UriTemplate a = cache.shared("/a{/id}");
+        cache.get("/b{/id}");
+        UriTemplate c = cache.shared("/c{/id}");
+        cache.shared("/a{/id}");
+        cache.shared("/c{/id}");
+        cache.get("/d{/id}");
+        // b is the only template that was not used since it was added
+        Assert.assertEquals(1, cache.getEvictionCount());
+        long misses = cache.getMissCount();
+        Assert.assertSame(a, cache.shared("/a{/id}"));
+        Assert.assertSame(c, cache.shared("/c{/id}"));
+        Assert.assertEquals(misses, cache.getMissCount());
+        cache.get("/b{/id}");
+        Assert.assertEquals(misses + 1, cache.getMissCount());
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception
+    {
+        final UriTemplateCache cache = new UriTemplateCache(16);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int seed = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 20000; i++)
+                        {
+                            // Mostly hits on a few hot templates, with misses that keep the cache evicting
+                            String template = "/t" + ((i * 31 + seed) % (i % 4 == 0 ? 64 : 8)) + "{/id}";
+                            Assert.assertEquals(template, cache.get(template).getTemplate());
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertTrue(cache.size() <= 16);
+        Assert.assertEquals(80000, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void testReturnedTemplatesAreNotShared() throws Exception
+    {
+        UriTemplateCache cache = new UriTemplateCache(10);
+        UriTemplate.setTemplateCache(cache);
+        cache.get("/users{/id}").set("id", 1).withMaximumLength(3);
+        cache.get("/users{/id}").set("id", 2);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("id", 42);
+        Assert.assertEquals("/users/42", UriTemplate.expand("/users{/id}", values));
+        Assert.assertEquals("/users", cache.get("/users{/id}").expand());
+        Assert.assertEquals(Integer.MAX_VALUE, cache.get("/users{/id}").getMaximumLength());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testMalformedTemplateIsNotCached() throws Exception
+    {
+        UriTemplateCache cache = new UriTemplateCache(2);
+        try
+        {
+            cache.get("/broken{/id");
+            Assert.fail("Expected a MalformedUriTemplateException");
+        }
+        catch (MalformedUriTemplateException e)
+        {
+            // expected
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaximumSize() throws Exception
+    {
+        new UriTemplateCache(0);
+    }
+
+    @Test
+    public void testFromTemplateReturnsIndependentInstances() throws Exception
+    {
+        UriTemplateCache cache = new UriTemplateCache(10);
+        UriTemplate.setTemplateCache(cache);
+        UriTemplate first = UriTemplate.fromTemplate("/search{?q}").set("q", "cats");
+        UriTemplate second = UriTemplate.fromTemplate("/search{?q}");
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals("/search?q=cats", first.expand());
+        Assert.assertEquals("/search", second.expand());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testStaticExpandUsesCache() throws Exception
+    {
+        UriTemplateCache cache = new UriTemplateCache(10);
+        UriTemplate.setTemplateCache(cache);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("id", 42);
+        Assert.assertEquals("/users/42", UriTemplate.expand("/users{/id}", values));
+        Assert.assertEquals("/users/42{?page}", UriTemplate.expandPartial("/users{/id}{?page}", values));
+        Assert.assertEquals("/users/42", UriTemplate.expand("/users{/id}", values));
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tests for {@link UriTemplate#match(CharSequence)}.
+ */
+public class TestUriTemplateMatch
+{
+    private static Map<String, Object> values(Object... pairs)
+    {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < pairs.length; i += 2)
+        {
+            values.put((String) pairs[i], pairs[i + 1]);
+        }
+        return values;
+    }
+
+    private static void assertMatch(String template, String uri, Object... expected)
+    {
+        UriTemplateMatch match = UriTemplate.fromTemplate(template).match(uri);
+        Assert.assertTrue(template + " " + uri, match.matches());
+        Assert.assertEquals(template + " " + uri, values(expected), match.getValues());
+    }
+
+    private static void assertNoMatch(String template, String uri)
+    {
+        UriTemplateMatch match = UriTemplate.fromTemplate(template).match(uri);
+        Assert.assertFalse(template + " " + uri, match.matches());
+        Assert.assertTrue(match.getValues().isEmpty());
+    }
+
+    @Test
+    public void testPathAndQuery() throws Exception
+    {
+        UriTemplateMatch match = UriTemplate.fromTemplate("/repos{/owner,repo}/issues{?state,page}")
+                                            .match("/repos/damnhandy/uri-templates/issues?state=open");
+        Assert.assertTrue(match.matches());
+        Assert.assertEquals("damnhandy", match.get("owner"));
+        Assert.assertEquals("uri-templates", match.get("repo"));
+        Assert.assertEquals("open", match.get("state"));
+        Assert.assertFalse(match.isDefined("page"));
+        Assert.assertNull(match.get("page"));
+    }
+
+    @Test
+    public void testLevelOne() throws Exception
+    {
+        assertMatch("/users/{id}/profile", "/users/a%20b/profile", "id", "a b");
+        assertMatch("/files/{name}.json", "/files/report.json", "name", "report");
+        assertMatch("{+base}/items{?q}", "http://example.com/api/items?q=caf%C3%A9",
+                    "base", "http://example.com/api", "q", "café");
+        assertMatch("/static{+path}", "/static/css/site.css", "path", "/css/site.css");
+        assertMatch("/users/{id}", "/users/");
+    }
+
+    @Test
+    public void testOperators() throws Exception
+    {
+        assertMatch("/report{.fmt}", "/report.json", "fmt", "json");
+        assertMatch("/report{.fmt}", "/report");
+        assertMatch("/page{#section}", "/page#intro/part%201", "section", "intro/part 1");
+        assertMatch("/map{;x,y,empty}", "/map;x=1024;y=768;empty", "x", "1024", "y", "768", "empty", "");
+        assertMatch("/search{?q,lang}{&page}", "/search?q=uri%20templates&page=2",
+                    "q", "uri templates", "page", "2");
+        assertMatch("{a,b}", "x,y", "a", "x", "b", "y");
+    }
+
+    @Test
+    public void testListsAndMaps() throws Exception
+    {
+        assertMatch("/files{/path*}", "/files/a/b/c%2Fd", "path", Arrays.asList("a", "b", "c/d"));
+        assertMatch("/items{?ids*}", "/items?ids=1&ids=2&ids=3", "ids", Arrays.asList("1", "2", "3"));
+        assertMatch("/items{?list}", "/items?list=red,green", "list", Arrays.asList("red", "green"));
+        Map<String, String> filter = new LinkedHashMap<String, String>();
+        filter.put("color", "red");
+        filter.put("size", "L");
+        assertMatch("/items{?filter*,page}", "/items?color=red&size=L&page=2", "filter", filter, "page", "2");
+        assertMatch("/items{/keys*}", "/items/color=red/size=L", "keys", filter);
+    }
+
+    @Test
+    public void testVariableNames() throws Exception
+    {
+        assertMatch("/users{?user.name,a%2Eb}", "/users?user.name=joe&a%2Eb=1", "user.name", "joe", "a%2Eb", "1");
+        assertMatch("/{id}/copy/{id}", "/7/copy/7", "id", "7");
+        assertNoMatch("/{id}/copy/{id}", "/7/copy/8");
+    }
+
+    @Test
+    public void testNoMatch() throws Exception
+    {
+        assertNoMatch("/users/{id}", "/groups/1");
+        assertNoMatch("/users/{id}", "/users/1/extra");
+        assertNoMatch("/search{?q}", "/search?q=a&unknown=b");
+        assertNoMatch("/search{?q}", "/search?other=b");
+        assertNoMatch("/files/{name}.json", "/files/report.xml");
+        Assert.assertEquals("UriTemplateMatch [no match]", UriTemplate.fromTemplate("/x").match("/y").toString());
+    }
+
+    @Test
+    public void testValuesContainingWhatFollows() throws Exception
+    {
+        // A reserved value ends at the first occurrence of the literal that lets the rest match
+        assertMatch("{+path}/here/{x}", "/foo/here/z", "path", "/foo", "x", "z");
+        assertMatch("{+path}/here/{x}", "/foo/here/bar/here/z", "path", "/foo/here/bar", "x", "z");
+        assertMatch("/x/{+path}/end{?q}", "/x/a/end/b/end?q=1", "path", "a/end/b", "q", "1");
+        assertNoMatch("{+path}/here/{x}", "/foo/here/bar/z");
+        // The last value of a label takes up the dots that follow
+        assertMatch("/x{.fmt}", "/x.a.b", "fmt", "a.b");
+        assertMatch("/x{.a,b}", "/x.1.2.3", "a", "1", "b", "2.3");
+        // A simple value cannot contain reserved characters, so only the first occurrence is tried
+        assertNoMatch("/{x}/b", "/a/b/b");
+        assertMatch("/{x}.json", "/a.json.json", "x", "a.json");
+    }
+
+    @Test
+    public void testParametersInAnyOrder() throws Exception
+    {
+        assertMatch("/search{?q,page,limit}", "/search?limit=10&q=uri&page=2",
+                    "q", "uri", "page", "2", "limit", "10");
+        assertMatch("/search{?q}{&page,limit}", "/search?page=2&q=uri", "q", "uri", "page", "2");
+        assertMatch("/search{?q}{&page}", "/search&page=2", "page", "2");
+        assertMatch("/map{;x,y}", "/map;y=768;x=1024", "x", "1024", "y", "768");
+        assertMatch("/items{?filter*,page}", "/items?page=2&color=red", "filter",
+                    Collections.singletonMap("color", "red"), "page", "2");
+        assertMatch("/items{?id}", "/items?id=1&id=2", "id", Arrays.asList("1", "2"));
+        assertMatch("/login{?next}", "/login?next=/home?tab=1", "next", "/home?tab=1");
+        assertMatch("/search{?q}", "/search?");
+        assertMatch("/search{?q}{#part}", "/search?q=a#top", "q", "a", "part", "top");
+    }
+
+    @Test
+    public void testUnknownParameters() throws Exception
+    {
+        UriTemplate template = UriTemplate.fromTemplate("/search{?q,page}");
+        String uri = "/search?utm_source=mail&q=uri&utm_source=feed&x%20y=z";
+        Assert.assertFalse(template.match(uri).matches());
+        Assert.assertFalse(template.match(uri, UriTemplateMatch.UnknownParameters.REJECT).matches());
+
+        UriTemplateMatch match = template.match(uri, UriTemplateMatch.UnknownParameters.IGNORE);
+        Assert.assertEquals(values("q", "uri"), match.getValues());
+        Assert.assertTrue(match.getUnknownParameters().isEmpty());
+
+        match = template.match(uri, UriTemplateMatch.UnknownParameters.COLLECT);
+        Assert.assertEquals(values("q", "uri"), match.getValues());
+        Map<String, List<String>> unknown = new LinkedHashMap<String, List<String>>();
+        unknown.put("utm_source", Arrays.asList("mail", "feed"));
+        unknown.put("x y", Arrays.asList("z"));
+        Assert.assertEquals(unknown, match.getUnknownParameters());
+
+        Assert.assertTrue(UriTemplate.fromTemplate("/map{;x}").match("/map;x=1;y=2",
+                                                                     UriTemplateMatch.UnknownParameters.IGNORE)
+                                     .matches());
+        Assert.assertFalse(UriTemplate.fromTemplate("/map{;x}").match("/map;x=1;y=2").matches());
+    }
+
+    @Test
+    public void testManyRepeatedUnknownParameters() throws Exception
+    {
+        StringBuilder uri = new StringBuilder("/search?q=uri");
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++)
+        {
+            uri.append("&tag=").append(i);
+            expected.add(String.valueOf(i));
+        }
+        UriTemplateMatch match = UriTemplate.fromTemplate("/search{?q}")
+                                            .match(uri, UriTemplateMatch.UnknownParameters.COLLECT);
+        List<String> tags = match.getUnknownParameters().get("tag");
+        Assert.assertEquals(expected, tags);
+        try
+        {
+            tags.add("x");
+            Assert.fail("Expected an UnsupportedOperationException");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // The collected lists cannot be changed once the match is done
+        }
+    }
+
+    @Test
+    public void testTypedAccessors() throws Exception
+    {
+        UriTemplateMatch match = UriTemplate.fromTemplate("/tenants/{tenant}/users/{user}{?n,m,list}")
+                                            .match("/tenants/12345/users/123e4567-e89b-12d3-a456-426614174000"
+                                                   + "?n=-42&m=%31%32&list=1,2");
+        Assert.assertEquals(12345L, match.getLong("tenant"));
+        Assert.assertEquals(-42L, match.getLong("n"));
+        Assert.assertEquals(12L, match.getLong("m"));
+        Assert.assertEquals(UUID.fromString("123e4567-e89b-12d3-a456-426614174000"), match.getUuid("user"));
+        Assert.assertEquals("%31%32", match.getRaw("m").toString());
+        Assert.assertEquals("12", match.get("m"));
+        Assert.assertNull(match.getRaw("list"));
+        Assert.assertNull(match.getRaw("undefined"));
+
+        for (String name : Arrays.asList("user", "list", "undefined"))
+        {
+            try
+            {
+                match.getLong(name);
+                Assert.fail("Expected a NumberFormatException for " + name);
+            }
+            catch (NumberFormatException e)
+            {
+                // expected
+            }
+        }
+        try
+        {
+            match.getUuid("tenant");
+            Assert.fail("Expected an IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCapture() throws Exception
+    {
+        String uri = "/x/9223372036854775807/-9223372036854775808/9223372036854775808/+7/ab%63";
+        Assert.assertEquals(Long.MAX_VALUE, new Capture(uri, 3, 22).parseLong());
+        Assert.assertEquals(Long.MIN_VALUE, new Capture(uri, 23, 43).parseLong());
+        try
+        {
+            new Capture(uri, 44, 63).parseLong();
+            Assert.fail("Expected a NumberFormatException");
+        }
+        catch (NumberFormatException e)
+        {
+            // expected
+        }
+        Assert.assertEquals(7L, new Capture(uri, 64, 66).parseLong());
+
+        Capture capture = new Capture(uri, 67, 72);
+        Assert.assertEquals(5, capture.length());
+        Assert.assertEquals("ab%63", capture.toString());
+        Assert.assertEquals("abc", capture.decode());
+        Assert.assertEquals("%63", capture.subSequence(2, 5).toString());
+        Assert.assertEquals('b', capture.charAt(1));
+        Assert.assertEquals(UUID.fromString("123e4567-e89b-12d3-a456-426614174000"),
+                            new Capture("123e4567-e89b-12d3-a456-426614174000", 0, 36).parseUuid());
+        Assert.assertEquals(UUID.fromString("123E4567-E89B-12D3-A456-42661417400F"),
+                            new Capture("123E4567-E89B-12D3-A456-42661417400F", 0, 36).parseUuid());
+    }
+
+    @Test
+    public void testExpandedUrisMatch() throws Exception
+    {
+        String[] templates = {"/a/{x}/b/{y}", "{+x}/b{?y,z}", "/a{/x,y}{?z}", "/a{;x,y}{#z}", "/a{.x}{?y*}",
+                              "{x,y}/{+z}", "/a{/x*}{?y,z}", "/a{?x,y}{&z*}", "{+x}/b/{y}", "/a{/y}{.x}"};
+        Object[] samples = {"simple", "with space", "sl/ash", "café ☃", "q?u&e=r#y", "50%", "-_~", "v1.2", "x/b/y"};
+        for (String template : templates)
+        {
+            UriTemplate t = UriTemplate.fromTemplate(template);
+            for (Object x : samples)
+            {
+                for (Object y : samples)
+                {
+                    Map<String, Object> vars = new HashMap<String, Object>();
+                    vars.put("x", x);
+                    vars.put("y", y);
+                    vars.put("z", Arrays.asList("one", y));
+                    String uri = t.expand(vars);
+                    UriTemplateMatch match = t.match(uri);
+                    Assert.assertTrue(template + " " + uri, match.matches());
+                    Assert.assertEquals(template + " " + uri, uri, t.expand(match.getValues()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReusedBuilder() throws Exception
+    {
+        StringBuilder uri = new StringBuilder("/users/42?q=uri");
+        UriTemplateMatch match = UriTemplate.fromTemplate("/users/{id}{?q}").match(uri);
+        uri.setLength(0);
+        uri.append("/users/73?q=xyz");
+        Assert.assertEquals("42", match.get("id"));
+        Assert.assertEquals(42L, match.getLong("id"));
+        Assert.assertEquals("uri", match.get("q"));
+    }
+
+    @Test
+    public void testLongInput() throws Exception
+    {
+        StringBuilder uri = new StringBuilder("/files");
+        for (int i = 0; i < 100000; i++)
+        {
+            uri.append("/aaaaaaaa");
+        }
+        uri.append('!');
+        Assert.assertFalse(UriTemplate.fromTemplate("/files{/path*}{?q}").match(uri).matches());
+        uri.setLength(uri.length() - 1);
+        Assert.assertEquals(100000, ((List<?>) UriTemplate.fromTemplate("/files{/path*}{?q}")
+                                                          .match(uri).get("path")).size());
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link UriTemplateRouter}.
+ */
+public class TestUriTemplateRouter
+{
+    private static String target(UriTemplateRouter<String> router, String uri)
+    {
+        UriTemplateRouter.Route<String> route = router.route(uri);
+        return route == null ? null : route.getTarget();
+    }
+
+    @Test
+    public void testRoutes() throws Exception
+    {
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/users/{id}", "user")
+            .add("/users/{id}/repos{?page}", "repos")
+            .add("/users/{id}/repos/{repo}", "repo")
+            .add("/orgs{/org}/members", "members")
+            .add("/static{+path}", "static")
+            .build();
+        Assert.assertEquals(5, router.size());
+
+        UriTemplateRouter.Route<String> route = router.route("/users/42/repos?page=2");
+        Assert.assertEquals("repos", route.getTarget());
+        Assert.assertEquals("/users/{id}/repos{?page}", route.getTemplate().getTemplate());
+        Assert.assertEquals("42", route.getMatch().get("id"));
+        Assert.assertEquals("2", route.getMatch().get("page"));
+
+        route = router.route("/users/a%20b/repos/uri-templates");
+        Assert.assertEquals("repo", route.getTarget());
+        Assert.assertEquals("a b", route.getMatch().get("id"));
+        Assert.assertEquals("uri-templates", route.getMatch().get("repo"));
+
+        Assert.assertEquals("user", target(router, "/users/42"));
+        Assert.assertEquals("repos", target(router, "/users/42/repos"));
+        Assert.assertEquals("members", target(router, "/orgs/acme/members"));
+        Assert.assertEquals("static", target(router, "/static/css/site.css"));
+        Assert.assertNull(router.route("/groups/1"));
+        Assert.assertNull(router.route("/users/42/other"));
+    }
+
+    @Test
+    public void testLiteralBeatsExpression() throws Exception
+    {
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/users/{id}", "user")
+            .add("/users/me", "me")
+            .add("/users/me/settings", "settings")
+            .build();
+        Assert.assertEquals("me", target(router, "/users/me"));
+        Assert.assertEquals("settings", target(router, "/users/me/settings"));
+        Assert.assertEquals("user", target(router, "/users/mel"));
+        Assert.assertTrue(router.route("/users/me").getMatch().getValues().isEmpty());
+    }
+
+    @Test
+    public void testSpecificity() throws Exception
+    {
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/files{+path}", "reserved")
+            .add("/files{/name}", "name")
+            .add("/files", "files")
+            .add("/files{?q}", "search")
+            .build();
+        Assert.assertEquals("files", target(router, "/files"));
+        Assert.assertEquals("name", target(router, "/files/a"));
+        Assert.assertEquals("reserved", target(router, "/files/a/b"));
+        Assert.assertEquals("search", target(router, "/files?q=x"));
+    }
+
+    @Test
+    public void testBacktracking() throws Exception
+    {
+        // Both templates share the {a} edge; the values of the failed branch must not leak
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/{a}/x/{b}", "first")
+            .add("/{a}/y{?c}", "second")
+            .build();
+        UriTemplateRouter.Route<String> route = router.route("/1/y?c=3");
+        Assert.assertEquals("second", route.getTarget());
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("a", "1");
+        expected.put("c", "3");
+        Assert.assertEquals(expected, route.getMatch().getValues());
+    }
+
+    @Test
+    public void testTemplatesShareExpressionEdges() throws Exception
+    {
+        // Templates that differ only after {id} share its edge, however many there are
+        UriTemplateRouter.Builder<Integer> builder = UriTemplateRouter.builder();
+        for (int i = 0; i < 1000; i++)
+        {
+            builder.add("/api/{id}/r" + i, i);
+        }
+        builder.add("/api/{id}", -1).add("/api/{id}/r7{/rest}", -2);
+        UriTemplateRouter<Integer> router = builder.build();
+        Assert.assertEquals(2, router.edgeCount());
+
+        UriTemplateRouter.Route<Integer> route = router.route("/api/42/r517");
+        Assert.assertEquals(Integer.valueOf(517), route.getTarget());
+        Assert.assertEquals("42", route.getMatch().get("id"));
+        Assert.assertEquals(Integer.valueOf(-1), router.route("/api/42").getTarget());
+        Assert.assertEquals(Integer.valueOf(7), router.route("/api/42/r7").getTarget());
+        Assert.assertEquals(Integer.valueOf(-2), router.route("/api/42/r7/x").getTarget());
+        Assert.assertNull(router.route("/api/42/r1000"));
+    }
+
+    @Test
+    public void testLiteralThatEndsTheTemplate() throws Exception
+    {
+        // A literal that ends a template is looked for at the end of the URI, not where it first occurs
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/x/{+path}/end", "end")
+            .add("/x/{+path}/end{?q}", "query")
+            .build();
+        for (String uri : Arrays.asList("/x/a/end/b/end", "/x/a/end?q=1", "/x/a/end/b/end?q=1"))
+        {
+            UriTemplateRouter.Route<String> route = router.route(uri);
+            Assert.assertEquals(uri, route.getTemplate().match(uri).getValues(), route.getMatch().getValues());
+        }
+        Assert.assertEquals("a/end/b", router.route("/x/a/end/b/end").getMatch().get("path"));
+        // Where it does not end the template, a reserved value may still contain it
+        Assert.assertEquals("query", router.route("/x/a/end/b/end?q=1").getTarget());
+        Assert.assertEquals("a/end/b", router.route("/x/a/end/b/end?q=1").getMatch().get("path"));
+    }
+
+    @Test
+    public void testAmbiguousTemplates() throws Exception
+    {
+        UriTemplateRouter.Builder<String> builder = UriTemplateRouter.<String>builder().add("/users/{id}", "a");
+        for (String template : Arrays.asList("/users/{id}", "/users/{name}"))
+        {
+            try
+            {
+                builder.add(template, "b");
+                Assert.fail("Expected an IllegalArgumentException for " + template);
+            }
+            catch (IllegalArgumentException e)
+            {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("/users/{id}"));
+            }
+        }
+        // Named operators match by name, so these are different templates
+        builder.add("/search{?q}", "q").add("/search{?term}", "term");
+        UriTemplateRouter<String> router = builder.build();
+        Assert.assertEquals("q", target(router, "/search?q=x"));
+        Assert.assertEquals("term", target(router, "/search?term=x"));
+    }
+
+    @Test
+    public void testOverlappingTemplates() throws Exception
+    {
+        // Only templates of the same shape are rejected; overlapping ones are resolved by specificity
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/{y}/b", "y")
+            .add("/a/{x}", "x")
+            .build();
+        Assert.assertEquals("x", target(router, "/a/b"));
+        Assert.assertEquals("x", target(router, "/a/c"));
+        Assert.assertEquals("y", target(router, "/c/b"));
+    }
+
+    @Test
+    public void testReusedBuilder() throws Exception
+    {
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder().add("/users/{id}", "user").build();
+        StringBuilder uri = new StringBuilder("/users/42");
+        UriTemplateRouter.Route<String> route = router.route(uri);
+        uri.setLength(0);
+        uri.append("/users/73");
+        Assert.assertEquals("42", route.getMatch().get("id"));
+    }
+
+    @Test
+    public void testUnknownParameters() throws Exception
+    {
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/search{?q,page}", "search")
+            .add("/search{?term}", "term")
+            .build();
+        Assert.assertEquals("search", target(router, "/search?page=2&q=uri"));
+        Assert.assertNull(router.route("/search?q=uri&utm_source=mail"));
+
+        UriTemplateRouter.Route<String> route = router.route("/search?q=uri&utm_source=mail",
+                                                             UriTemplateMatch.UnknownParameters.COLLECT);
+        Assert.assertEquals("search", route.getTarget());
+        Assert.assertEquals(Arrays.asList("mail"), route.getMatch().getUnknownParameters().get("utm_source"));
+        Assert.assertEquals(1, route.getMatch().getUnknownParameters().size());
+
+        try
+        {
+            UriTemplateRouter.<String>builder().add("/search{?q,page}", "a").add("/search{?page,q}", "b");
+            Assert.fail("Expected an IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // The pairs are bound by name, so both templates match the same URIs
+        }
+    }
+
+    @Test
+    public void testCollectedParametersOfFailedBranches() throws Exception
+    {
+        // The {?p} branch collects u=2 and then fails on /z; only the {?p,z} branch may keep it
+        UriTemplateRouter<String> router = UriTemplateRouter.<String>builder()
+            .add("/s{?q}/a{?p}{/x}/z", "first")
+            .add("/s{?q}/a{?p,z}/y", "second")
+            .build();
+        UriTemplateRouter.Route<String> route = router.route("/s?q=1&u=1/a?p=2&u=2/y",
+                                                             UriTemplateMatch.UnknownParameters.COLLECT);
+        Assert.assertEquals("second", route.getTarget());
+        Assert.assertEquals(Arrays.asList("1", "2"), route.getMatch().getUnknownParameters().get("u"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuilderCannotBeReused() throws Exception
+    {
+        UriTemplateRouter.Builder<String> builder = UriTemplateRouter.builder();
+        builder.build();
+        builder.add("/x", "x");
+    }
+
+    @Test
+    public void testAgreesWithMatch() throws Exception
+    {
+        UriTemplateRouter.Builder<Integer> builder = UriTemplateRouter.builder();
+        String[] templates = new String[2000];
+        for (int i = 0; i < templates.length; i++)
+        {
+            templates[i] = "/api/v" + (i % 7) + "/resource" + i + "{/id}/sub" + (i % 3) + "{?page,size}";
+            builder.add(templates[i], i);
+        }
+        UriTemplateRouter<Integer> router = builder.build();
+        for (int i = 0; i < templates.length; i += 37)
+        {
+            String uri = "/api/v" + (i % 7) + "/resource" + i + "/x" + i + "/sub" + (i % 3) + "?size=10";
+            UriTemplateRouter.Route<Integer> route = router.route(uri);
+            Assert.assertEquals(uri, Integer.valueOf(i), route.getTarget());
+            Assert.assertEquals(UriTemplate.fromTemplate(templates[i]).match(uri).getValues(),
+                                route.getMatch().getValues());
+        }
+        Assert.assertNull(router.route("/api/v1/resource2/x/sub2"));
+    }
+}
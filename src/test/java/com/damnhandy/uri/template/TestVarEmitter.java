@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import com.damnhandy.uri.template.impl.Modifier;
+import com.damnhandy.uri.template.impl.Operator;
+import com.damnhandy.uri.template.impl.VarSpec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for the strings that {@link VarEmitter} computes for each operator.
+ */
+public class TestVarEmitter
+{
+    private static String emit(VarEmitter var, CharSequence value, String prefix)
+    {
+        StringBuilder b = new StringBuilder();
+        var.appendString(value, prefix, ExpansionSink.of(b));
+        return b.toString();
+    }
+
+    @Test
+    public void testQuery() throws Exception
+    {
+        VarEmitter var = new VarEmitter(Operator.QUERY, new VarSpec("q", Modifier.NONE), 0);
+        Assert.assertEquals("?", var.expressionPrefix);
+        Assert.assertEquals("&", var.expressionSeparator);
+        Assert.assertEquals("q=", var.valuePrefix);
+        Assert.assertEquals("q=", var.compositePrefix);
+        Assert.assertNull(var.elementPrefix);
+        Assert.assertNull(var.emptyValue);
+        Assert.assertEquals(",", var.elementSeparator);
+        Assert.assertEquals("q=a%20b", emit(var, "a b", var.valuePrefix));
+        Assert.assertEquals("q=", emit(var, "", var.valuePrefix));
+    }
+
+    @Test
+    public void testExplodedMatrix() throws Exception
+    {
+        VarEmitter var = new VarEmitter(Operator.MATRIX, new VarSpec("list", Modifier.EXPLODE), 3);
+        Assert.assertEquals(3, var.slot);
+        Assert.assertNull(var.compositePrefix);
+        Assert.assertEquals("list=", var.elementPrefix);
+        Assert.assertEquals(";", var.elementSeparator);
+        Assert.assertEquals('=', var.pairSeparator);
+        Assert.assertEquals("list", emit(var, "", var.elementPrefix));
+    }
+
+    @Test
+    public void testReservedPrefix() throws Exception
+    {
+        VarEmitter var = new VarEmitter(Operator.RESERVED, new VarSpec("path", Modifier.PREFIX, 6), 0);
+        Assert.assertEquals("", var.expressionPrefix);
+        Assert.assertNull(var.valuePrefix);
+        Assert.assertEquals(6, var.maxLength);
+        Assert.assertEquals("/a%20b/c", emit(var, "/a b/cd", var.valuePrefix));
+    }
+
+    @Test
+    public void testLevelOne() throws Exception
+    {
+        Assert.assertTrue(new VarEmitter(Operator.NUL, new VarSpec("v", Modifier.NONE), 0).levelOne);
+        Assert.assertTrue(new VarEmitter(Operator.RESERVED, new VarSpec("v", Modifier.NONE), 0).levelOne);
+        Assert.assertFalse(new VarEmitter(Operator.NUL, new VarSpec("v", Modifier.EXPLODE), 0).levelOne);
+        Assert.assertFalse(new VarEmitter(Operator.NUL, new VarSpec("v", Modifier.PREFIX, 2), 0).levelOne);
+        Assert.assertFalse(new VarEmitter(Operator.FRAGMENT, new VarSpec("v", Modifier.NONE), 0).levelOne);
+    }
+
+    @Test
+    public void testLevelOneMatchesGenericPath() throws Exception
+    {
+        Object[] values = {"a b/c", "", 42, EncodedValue.of("x%2Fy", UriTemplate.Encoding.U),
+                           Arrays.asList("p", "q r"), Collections.emptyList(), Collections.singletonMap("k", "v"),
+                           new long[] {1, 2}, null};
+        for (Object value : values)
+        {
+            Map<String, Object> vars = new HashMap<String, Object>();
+            vars.put("v", value);
+            Assert.assertEquals(String.valueOf(value), UriTemplate.fromTemplate("<{v,u}>{+v,u}").expand(vars),
+                                UriTemplate.fromTemplate("<{v}>{+v}").expand(vars));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012, Ryan J. McDonough
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.damnhandy.uri.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for expanding templates with a {@link VariableResolver}.
+ */
+public class TestVariableResolver
+{
+    private static final UriTemplate TEMPLATE = UriTemplate.fromTemplate("/users{/id}{?fields,page}");
+
+    /**
+     * A resolver over a map that records which names were requested.
+     */
+    private static class RecordingResolver implements VariableResolver
+    {
+        private final Map<String, Object> context;
+
+        private final List<String> requested = new ArrayList<String>();
+
+        RecordingResolver(Map<String, Object> context)
+        {
+            this.context = context;
+        }
+
+        @Override
+        public boolean containsVariable(String name)
+        {
+            requested.add(name);
+            return context.containsKey(name);
+        }
+
+        @Override
+        public Object resolve(String name)
+        {
+            return context.get(name);
+        }
+    }
+
+    private static Map<String, Object> context()
+    {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("id", 42);
+        context.put("fields", Arrays.asList("name", "email"));
+        context.put("session", "not referenced");
+        context.put("locale", "not referenced");
+        return context;
+    }
+
+    @Test
+    public void testExpandMatchesMap() throws Exception
+    {
+        Assert.assertEquals(TEMPLATE.expand(context()), TEMPLATE.expand(new RecordingResolver(context())));
+        Assert.assertEquals("/users/42?fields=name,email", TEMPLATE.expand(new RecordingResolver(context())));
+        Assert.assertEquals("/users/42?fields=name,email",
+                            TEMPLATE.expandTo(new RecordingResolver(context()), new StringBuilder()).toString());
+    }
+
+    @Test
+    public void testOnlyReferencedVariablesAreResolved() throws Exception
+    {
+        RecordingResolver resolver = new RecordingResolver(context());
+        TEMPLATE.expand(resolver);
+        Assert.assertEquals(Arrays.asList("id", "fields", "page"), resolver.requested);
+    }
+
+    @Test
+    public void testExpandPartial() throws Exception
+    {
+        Assert.assertEquals("/users/42{?page}", UriTemplate.fromTemplate("/users{/id}{?page}")
+                                                           .expandPartial(new RecordingResolver(context())));
+    }
+}
@@ -1,6 +1,7 @@
 package com.damnhandy.uri.template;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
@@ -116,4 +117,47 @@ public class UriUtilTest
 
       }
    }
+
+   @Test
+   public void nothingToEncodeReturnsSameInstance() throws Exception
+   {
+      String value = new String(UNRESERVED);
+      assertSame(value, UriUtil.encode(value));
+      assertSame(value, UriUtil.encodeFragment(value));
+   }
+
+   @Test
+   public void supplementaryCharacterEncoding() throws Exception
+   {
+      assertEquals("a%F0%9F%98%80b", UriUtil.encode("a\uD83D\uDE00b"));
+   }
+
+   @Test
+   public void loneSurrogateIsReplaced() throws Exception
+   {
+      assertEquals("a%3Fb", UriUtil.encode("a\uD83Db"));
+      assertEquals("a?b", UriUtil.encodeFragment("a\uDE00b"));
+   }
+
+   @Test
+   public void controlCharacterEncoding() throws Exception
+   {
+      assertEquals("%00%09%0A%20", UriUtil.encode("\u0000\t\n "));
+      assertEquals("%C2%80", UriUtil.encode("\u0080"));
+   }
+
+   @Test
+   public void fragmentKeepsExistingEscapes() throws Exception
+   {
+      validateFragment("https://example.com/?next=%2Fhome%3Fa%3Db&x=%25%20y", "https://example.com/?next=%2Fhome%3Fa%3Db&x=%25 y");
+      validateFragment("%25%252%252G%25", "%%2%2G%");
+      validateFragment("%aF%C3%A9%ff", "%aF\u00e9%ff");
+   }
+
+   @Test
+   public void fragmentWithOnlyEscapesReturnsSameInstance() throws Exception
+   {
+      String value = new String("/a%20b/%C3%A9");
+      assertSame(value, UriUtil.encodeFragment(value));
+   }
 }